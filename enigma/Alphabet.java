@@ -1,4 +1,7 @@
 package enigma;
+
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
@@ -10,16 +13,20 @@ class Alphabet {
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
         _chars = chars;
-        int x = 0;
+        int max = 0;
+        for (int i = 0; i < chars.length(); i += 1) {
+            max = Math.max(max, chars.charAt(i));
+        }
+        _members = new long[(max >> 6) + 1];
+        _indices = new int[max + 1];
+        Arrays.fill(_indices, -1);
         for (int i = 0; i < chars.length(); i += 1) {
-            char alphabet = chars.charAt(i);
-            if (chars == null) {
-                break;
-            } else if (alphabet == chars.charAt(i) && x == i) {
-                x += 1;
-            } else {
-                throw error("character outside Alphabet");
+            char ch = chars.charAt(i);
+            if (_indices[ch] >= 0) {
+                throw error("character '%c' duplicated in alphabet", ch);
             }
+            _indices[ch] = i;
+            _members[ch >> 6] |= 1L << ch;
         }
     }
 
@@ -35,12 +42,25 @@ class Alphabet {
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        for (int i = 0; i < _chars.length(); i += 1) {
-            if (_chars.charAt(i) == ch) {
-                return true;
+        int word = ch >> 6;
+        return word < _members.length && (_members[word] & (1L << ch)) != 0;
+    }
+
+    /** Returns the index of the first character of TEXT, other than a
+     *  blank, that is not in this alphabet, or -1 if there is none.  This
+     *  checks a whole message at once, without exceptions, so that bad
+     *  input costs no more than good. */
+    int firstInvalid(CharSequence text) {
+        long[] members = _members;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = text.charAt(i);
+            int word = ch >> 6;
+            if (ch != ' ' && (word >= members.length
+                              || (members[word] & (1L << ch)) == 0)) {
+                return i;
             }
         }
-        return false;
+        return -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
@@ -52,8 +72,12 @@ class Alphabet {
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return _chars.indexOf(ch);
+        return ch < _indices.length ? _indices[ch] : -1;
     }
     /** Character represented in the alphabet. */
     private String _chars;
+    /** Bitmap of the characters in the alphabet, by character code. */
+    private final long[] _members;
+    /** _indices[c] is the index of character C, or -1 if absent. */
+    private final int[] _indices;
 }
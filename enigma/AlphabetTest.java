@@ -35,4 +35,17 @@ public class AlphabetTest {
         assertEquals(25, A.toInt('Z'));
         assertEquals(13, A.toInt('N'));
     }
+    @Test
+    public void testFirstInvalid() {
+        Alphabet A = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        assertEquals(-1, A.firstInvalid(""));
+        assertEquals(-1, A.firstInvalid("HELLO WORLD "));
+        assertEquals(5, A.firstInvalid("HELLO%WORLD"));
+        assertEquals(0, A.firstInvalid("hello"));
+        assertEquals(2, A.firstInvalid("AB\u00c9"));
+        assertEquals(1, A.firstInvalid("A\u2603B"));
+        Alphabet B = new Alphabet("AB_");
+        assertEquals(-1, B.firstInvalid("A_B A"));
+        assertEquals(2, B.firstInvalid("A_C"));
+    }
 }
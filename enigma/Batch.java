@@ -0,0 +1,137 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** Runs many Enigma jobs in one JVM.  A manifest names one job per
+ *  line as three whitespace-separated file names: a configuration, an
+ *  input, and an output.  Blank lines and lines starting with '#' are
+ *  ignored.  Each configuration is indexed once and shared by all the
+ *  jobs that use it, and jobs run concurrently on a bounded pool.  A
+ *  failing job reports its error, as Main would, without affecting the
+ *  others.
+ *  @author Curtis Wong
+ */
+class Batch {
+
+    /** A batch whose jobs are listed in the file named MANIFEST, each to
+     *  be run with Main OPTIONS. */
+    Batch(String manifest, Iterable<String> options) {
+        for (String option : options) {
+            if (option.startsWith("--checkpoint")
+                || option.equals("--resume")) {
+                throw error("%s cannot be used with --batch", option);
+            }
+        }
+        _options = options;
+        _jobs = new ArrayList<>();
+        String[] lines = Main.readFile(manifest).split("\n");
+        for (int i = 0; i < lines.length; i += 1) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] job = line.split("\\s+");
+            if (job.length != 3) {
+                throw error("%s:%d: expected config, input, and output",
+                            manifest, i + 1);
+            }
+            _jobs.add(job);
+        }
+    }
+
+    /** Run all my jobs, returning the number that failed. */
+    int run() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                                   new ArrayBlockingQueue<>(4 * threads),
+                                   new ThreadPoolExecutor.CallerRunsPolicy());
+        ArrayList<Future<Boolean>> results = new ArrayList<>();
+        for (String[] job : _jobs) {
+            results.add(pool.submit(() -> runJob(job)));
+        }
+        pool.shutdown();
+        int failures = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) {
+                    failures += 1;
+                }
+            } catch (ExecutionException excp) {
+                System.err.printf("Error: %s%n", excp.getCause());
+                failures += 1;
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                failures += 1;
+            }
+        }
+        return failures;
+    }
+
+    /** Run JOB, a configuration, input, and output file name, returning
+     *  true iff it succeeded. */
+    private boolean runJob(String[] job) {
+        try (Main main = new Main(catalog(job[0]), job[1], job[2])) {
+            main.setOptions(_options);
+            main.process();
+            return true;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s: %s%n", job[1], excp.getMessage());
+            return false;
+        }
+    }
+
+    /** Return the rotor catalog for the configuration file NAME, reading
+     *  it only the first time it is needed.  The first job to need it
+     *  reads it, outside the map, while any others that need it wait;
+     *  if reading fails, they all fail the same way. */
+    private RotorCatalog catalog(String name) {
+        String key;
+        try {
+            key = new File(name).getCanonicalPath();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        FutureTask<RotorCatalog> task =
+            new FutureTask<>(() -> new RotorCatalog(Main.readFile(key)));
+        FutureTask<RotorCatalog> loading = _catalogs.putIfAbsent(key, task);
+        if (loading == null) {
+            loading = task;
+            task.run();
+        }
+        try {
+            return loading.get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw error("could not read %s: %s", name, excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted while reading %s", name);
+        }
+    }
+
+    /** Options applied to every job. */
+    private final Iterable<String> _options;
+
+    /** Jobs, each a configuration, input, and output file name. */
+    private final ArrayList<String[]> _jobs;
+
+    /** Catalogs read or being read so far, keyed by canonical
+     *  configuration path. */
+    private final ConcurrentHashMap<String, FutureTask<RotorCatalog>>
+        _catalogs = new ConcurrentHashMap<>();
+
+}
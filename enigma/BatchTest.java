@@ -0,0 +1,132 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Curtis Wong
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 4 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n";
+
+    /** Return a new file named NAME in DIR containing TEXT. */
+    private static File write(File dir, String name, String text)
+        throws IOException {
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes());
+        return file;
+    }
+
+    /** Return the contents of FILE. */
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    /** Return a new empty directory, removed on exit. */
+    private static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("enigma").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void failingJobInMiddle() throws IOException {
+        File dir = tempDir();
+        File config = write(dir, "a.conf", CONFIG);
+        String good = "* B I II III AAA\nHELLO WORLD\n";
+        write(dir, "1.in", good);
+        write(dir, "2.in", good);
+        write(dir, "3.in", "HELLO\n");
+        write(dir, "4.in", good);
+        File[] out = new File[5];
+        for (int i = 1; i < out.length; i += 1) {
+            out[i] = new File(dir, i + ".out");
+            out[i].deleteOnExit();
+        }
+        String manifest = String.format(
+            "# jobs\n%s %s %s\n\n%s %s %s\n%s %s %s\n%s %s %s\n",
+            config, new File(dir, "1.in"), out[1],
+            config, new File(dir, "2.in"), new File(dir, "none/2.out"),
+            config, new File(dir, "3.in"), out[3],
+            config, new File(dir, "4.in"), out[4]);
+        File list = write(dir, "jobs", manifest);
+        Batch batch = new Batch(list.getPath(),
+                                Collections.<String>emptyList());
+        assertEquals(2, batch.run());
+        String expected = MainTest.run(good);
+        assertEquals(expected, read(out[1]));
+        assertEquals(expected, read(out[4]));
+        assertEquals("", read(out[3]));
+    }
+
+    @Test
+    public void sharedConfigs() throws IOException {
+        File dir = tempDir();
+        File config = write(dir, "a.conf", CONFIG);
+        File bad = write(dir, "b.conf", "AB\n 3\n");
+        String good = "* B I II III AAA\nHELLO WORLD\n";
+        StringBuilder manifest = new StringBuilder();
+        File[] out = new File[8];
+        for (int i = 0; i < out.length; i += 1) {
+            out[i] = new File(dir, i + ".out");
+            out[i].deleteOnExit();
+            manifest.append(String.format(
+                "%s %s %s%n", i % 2 == 0 ? config : bad,
+                write(dir, i + ".in", good), out[i]));
+        }
+        Batch batch = new Batch(write(dir, "jobs", manifest.toString())
+                                .getPath(),
+                                Collections.<String>emptyList());
+        assertEquals(out.length / 2, batch.run());
+        for (int i = 0; i < out.length; i += 2) {
+            assertEquals(MainTest.run(good), read(out[i]));
+        }
+    }
+
+    @Test
+    public void badManifest() throws IOException {
+        File dir = tempDir();
+        File list = write(dir, "jobs", "a.conf a.in\n");
+        try {
+            new Batch(list.getPath(), Collections.<String>emptyList());
+            fail("accepted a job without an output");
+        } catch (EnigmaException excp) {
+            assertEquals(list.getPath() + ":1: expected config, input, "
+                         + "and output", excp.getMessage());
+        }
+        try {
+            new Batch(write(dir, "ok", "").getPath(),
+                      Arrays.asList("--resume"));
+            fail("accepted --resume");
+        } catch (EnigmaException excp) {
+            assertEquals("--resume cannot be used with --batch",
+                         excp.getMessage());
+        }
+    }
+
+}
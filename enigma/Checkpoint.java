@@ -0,0 +1,228 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** How far Main has got through its input and output, and the state
+ *  of its machine there, so that an interrupted run can be resumed.
+ *  A checkpoint travels through Main's pipeline between lines: the
+ *  reader fills in the input position, the encryption stage its state,
+ *  and the writer, once everything before it is written, the output
+ *  position, and saves it.  Saved checkpoints replace the previous one
+ *  atomically, so that the file always holds a complete checkpoint.
+ *  To tell whether a checkpoint belongs to a given run, it also records
+ *  a hash of the configuration text and checksums of the input read
+ *  and the output written before it.
+ *  @author Curtis Wong
+ */
+class Checkpoint {
+
+    /** A checkpoint after line LINENUM of the input, the next line
+     *  starting at byte INPUT, for a run whose configuration text has
+     *  hashCode() CONFIG and whose input up to INPUT has checksum
+     *  INPUTSUM. */
+    Checkpoint(long input, int lineNum, int config, long inputSum) {
+        _input = input;
+        _lineNum = lineNum;
+        _config = config;
+        _inputSum = inputSum;
+    }
+
+    /** Return the checkpoint saved in the file named NAME. */
+    static Checkpoint load(Path name) {
+        String[] lines = Main.readFile(name.toString()).split("\n", -1);
+        if (lines.length < 12 || !lines[0].equals(HEADER)) {
+            throw error("%s is not a checkpoint", name);
+        }
+        try {
+            Checkpoint result =
+                new Checkpoint(Long.parseLong(lines[1]),
+                               Integer.parseInt(lines[2]),
+                               Integer.parseUnsignedInt(lines[9], 16),
+                               Long.parseUnsignedLong(lines[10], 16));
+            result._output = Long.parseLong(lines[3]);
+            result._blanks = Integer.parseInt(lines[4]);
+            result._snapshot = Long.parseLong(lines[5]);
+            result._active = setting(lines[6]);
+            result._pending = setting(lines[7]);
+            result._plugboard = lines[8];
+            result._outputSum = Long.parseUnsignedLong(lines[11], 16);
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("corrupt checkpoint %s", name);
+        }
+    }
+
+    /** Save me in the file named NAME, replacing it atomically. */
+    void save(Path name) {
+        replace(name, String.join("\n", HEADER, Long.toString(_input),
+                                  Integer.toString(_lineNum),
+                                  Long.toString(_output),
+                                  Integer.toString(_blanks),
+                                  Long.toString(_snapshot), line(_active),
+                                  line(_pending), _plugboard,
+                                  Integer.toHexString(_config),
+                                  Long.toHexString(_inputSum),
+                                  Long.toHexString(_outputSum), ""));
+    }
+
+    /** Replace the file named NAME with one containing TEXT, so that
+     *  readers see either the old contents or the new, never a mix.  The
+     *  new contents reach the disk before they replace the old, so that
+     *  this holds after a crash too. */
+    static void replace(Path name, String text) {
+        Path target = name.toAbsolutePath();
+        try {
+            Path temp = Files.createTempFile(target.getParent(),
+                                             target.getFileName().toString(),
+                                             ".tmp");
+            try (FileChannel out =
+                 FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes =
+                    ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                out.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Return SETTING as saved: empty if null, and otherwise prefixed by
+     *  '=' so that an empty setting line is distinguished. */
+    private static String line(String setting) {
+        return setting == null ? "" : "=" + setting;
+    }
+
+    /** Return the setting line saved as LINE by line(). */
+    private static String setting(String line) {
+        return line.isEmpty() ? null : line.substring(1);
+    }
+
+    /** Return the offset of the first byte of input not yet read. */
+    long input() {
+        return _input;
+    }
+
+    /** Return the number of input lines read. */
+    int lineNum() {
+        return _lineNum;
+    }
+
+    /** Return the number of bytes of output written. */
+    long output() {
+        return _output;
+    }
+
+    /** Return the hashCode() of the configuration text. */
+    int config() {
+        return _config;
+    }
+
+    /** Return the checksum of the first input() bytes of input. */
+    long inputSum() {
+        return _inputSum;
+    }
+
+    /** Return the checksum of the first output() bytes of output. */
+    long outputSum() {
+        return _outputSum;
+    }
+
+    /** Return the number of blank lines read since the last message,
+     *  which are written only if another message follows. */
+    int blanks() {
+        return _blanks;
+    }
+
+    /** Return the setting line in force, or null if none. */
+    String active() {
+        return _active;
+    }
+
+    /** Return the machine's rotor settings (as by Machine.snapshot())
+     *  under active(). */
+    long snapshot() {
+        return _snapshot;
+    }
+
+    /** Return the plugboard in force under active(), in cycle notation.
+     *  It may have been inherited from an earlier setting line. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Return a setting line read but not yet applied, or null. */
+    String pending() {
+        return _pending;
+    }
+
+    /** Record the encryption stage's state: ACTIVE, the setting line in
+     *  force (or null), with rotors at SNAPSHOT and the plugboard
+     *  PLUGBOARD (in cycle notation), PENDING, a setting line not yet
+     *  applied (or null), and BLANKS blank lines held back. */
+    void setState(String active, long snapshot, String plugboard,
+                  String pending, int blanks) {
+        _active = active;
+        _snapshot = snapshot;
+        _plugboard = plugboard;
+        _pending = pending;
+        _blanks = blanks;
+    }
+
+    /** Record that OUTPUT bytes of output, with checksum OUTPUTSUM,
+     *  have been written. */
+    void setOutput(long output, long outputSum) {
+        _output = output;
+        _outputSum = outputSum;
+    }
+
+    /** First line of a checkpoint file. */
+    private static final String HEADER = "enigma-checkpoint-3";
+
+    /** Input offset. */
+    private final long _input;
+
+    /** Input line number. */
+    private final int _lineNum;
+
+    /** Hash of the configuration text. */
+    private final int _config;
+
+    /** Checksum of the input before _input. */
+    private final long _inputSum;
+
+    /** Output offset. */
+    private long _output;
+
+    /** Checksum of the output before _output. */
+    private long _outputSum;
+
+    /** Blank lines held back. */
+    private int _blanks;
+
+    /** Packed rotor settings. */
+    private long _snapshot;
+
+    /** Setting line in force, or null. */
+    private String _active;
+
+    /** Plugboard in force, in cycle notation. */
+    private String _plugboard = "";
+
+    /** Setting line not yet applied, or null. */
+    private String _pending;
+
+}
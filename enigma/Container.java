@@ -0,0 +1,278 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** A container of Enigma output in the binary format ContainerWriter
+ *  writes (see there), read through memory-mapped I/O.  Any block can
+ *  be read, or decrypted, without the others, since its header names
+ *  its setting line, rotors, plugboard, and rotor settings; whole
+ *  containers
+ *  are processed in parallel, a window of blocks at a time, and written
+ *  out in order.
+ *
+ *  Usage: java enigma.Container export CONTAINER [OUTPUT]
+ *         java enigma.Container decrypt CONTAINER [OUTPUT]
+ *  Export writes the text Main would have written when it wrote
+ *  CONTAINER; decrypt writes, in the same format, the text it
+ *  encrypted.  Output goes to OUTPUT, or by default the standard
+ *  output.
+ *  @author Curtis Wong
+ */
+class Container implements AutoCloseable {
+
+    /** Export or decrypt as directed by ARGS (see above). */
+    public static void main(String... args) {
+        try {
+            if ((args.length == 2 || args.length == 3)
+                && (args[0].equals("export") || args[0].equals("decrypt"))) {
+                try (Container container = new Container(args[1])) {
+                    GroupWriter writer = new GroupWriter(
+                        container.alphabet(),
+                        Main.openOutput(args.length == 3 ? args[2] : null));
+                    container.write(writer, args[0].equals("decrypt"));
+                    writer.close();
+                    if (writer.checkError()) {
+                        throw error("could not write output");
+                    }
+                }
+                return;
+            }
+            throw error("usage: export CONTAINER [OUTPUT] "
+                        + "| decrypt CONTAINER [OUTPUT]");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** The container in the file named NAME. */
+    Container(String name) {
+        _name = name;
+        try {
+            _channel = new RandomAccessFile(name, "r").getChannel();
+            long size = _channel.size();
+            ByteBuffer head = map(0, Math.min(size, HEADER_PREFIX));
+            if (size < HEADER_PREFIX + TRAILER
+                || head.getLong() != ContainerWriter.MAGIC) {
+                throw error("%s is not a container", name);
+            }
+            int bits = head.getInt();
+            int configLength = head.getInt();
+            String config = text(map(HEADER_PREFIX, configLength),
+                                 configLength);
+            ByteBuffer trailer = map(size - TRAILER, TRAILER);
+            _indexStart = trailer.getLong();
+            if (trailer.getLong() != ContainerWriter.MAGIC
+                || _indexStart < 0 || _indexStart > size - TRAILER) {
+                throw error("%s is truncated", name);
+            }
+            ByteBuffer index = map(_indexStart, size - TRAILER - _indexStart);
+            _settings = new String[index.getInt()];
+            for (int i = 0; i < _settings.length; i += 1) {
+                _settings[i] = text(index, index.getInt());
+            }
+            _catalog = new RotorCatalog(config);
+            int n = _catalog.numRotors();
+            _slots = new int[index.getInt()][n];
+            _reflectors = new int[_slots.length];
+            for (int i = 0; i < _slots.length; i += 1) {
+                String[] rotors =
+                    text(index, index.getInt()).split(" ", -1);
+                if (rotors.length != n + 1) {
+                    throw error("%s has a bad rotor table", name);
+                }
+                for (int j = 0; j < n; j += 1) {
+                    _slots[i][j] = _catalog.find(rotors[j]);
+                    if (_slots[i][j] < 0) {
+                        throw error("%s has a bad rotor table", name);
+                    }
+                }
+                _reflectors[i] = Integer.parseInt(rotors[n]);
+            }
+            _plugboards = new Permutation[index.getInt()];
+            for (int i = 0; i < _plugboards.length; i += 1) {
+                _plugboards[i] = new Permutation(text(index, index.getInt()),
+                                                 _catalog.alphabet());
+            }
+            _offsets = new long[index.getInt()];
+            for (int i = 0; i < _offsets.length; i += 1) {
+                _offsets[i] = index.getLong();
+            }
+            _eol = _catalog.alphabet().size();
+            _bits = bits;
+            if (bits != ContainerWriter.bits(_eol)) {
+                throw error("%s has the wrong symbol size", name);
+            }
+        } catch (IOException | RuntimeException excp) {
+            close();
+            if (excp instanceof EnigmaException) {
+                throw (EnigmaException) excp;
+            }
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Return the alphabet of my messages. */
+    Alphabet alphabet() {
+        return _catalog.alphabet();
+    }
+
+    /** Return the number of blocks I contain. */
+    int blocks() {
+        return _offsets.length;
+    }
+
+    /** Return the setting line under which block B was written. */
+    String setting(int b) {
+        return _settings[block(b).getInt()];
+    }
+
+    /** Return the plugboard in effect when block B was written. */
+    Permutation plugboard(int b) {
+        ByteBuffer block = block(b);
+        block.getInt();
+        block.getInt();
+        return _plugboards[block.getInt()];
+    }
+
+    /** Return the symbols of block B: alphabet indices, and the alphabet
+     *  size at each end of line.  If DECRYPT, decrypt the characters
+     *  first. */
+    int[] symbols(int b, boolean decrypt) {
+        ByteBuffer block = block(b);
+        block.getInt();
+        int rotors = block.getInt();
+        Permutation plugboard = _plugboards[block.getInt()];
+        long snapshot = block.getLong();
+        int[] result = new int[block.getInt()];
+        long mask = (1L << _bits) - 1;
+        long word = 0;
+        for (int i = 0, bit = 0; i < result.length; i += 1, bit += _bits) {
+            int shift = bit & 63;
+            if (shift == 0) {
+                word = block.getLong();
+            }
+            long s = word >>> shift;
+            if (shift + _bits > Long.SIZE) {
+                word = block.getLong();
+                s |= word << (Long.SIZE - shift);
+            }
+            result[i] = (int) (s & mask);
+        }
+        if (decrypt) {
+            Machine machine = new Machine(_catalog);
+            machine.setState(_slots[rotors], _reflectors[rotors],
+                             snapshot, plugboard);
+            for (int i = 0; i < result.length; i += 1) {
+                if (result[i] != _eol) {
+                    result[i] = machine.convert(result[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Write all my blocks, decrypted if DECRYPT, to OUT. */
+    void write(GroupWriter out, boolean decrypt) {
+        for (int lo = 0; lo < blocks(); lo += WINDOW) {
+            int[][] window = IntStream.range(lo, Math.min(blocks(),
+                                                          lo + WINDOW))
+                .parallel().mapToObj(b -> symbols(b, decrypt))
+                .toArray(int[][]::new);
+            for (int[] symbols : window) {
+                for (int s : symbols) {
+                    if (s == _eol) {
+                        out.endLine();
+                    } else {
+                        out.writeIndex(s);
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (_channel != null) {
+                _channel.close();
+            }
+        } catch (IOException excp) {
+            /* Ignore: nothing was written. */
+        }
+    }
+
+    /** Return block B, mapped. */
+    private ByteBuffer block(int b) {
+        long end = b + 1 < _offsets.length ? _offsets[b + 1] : _indexStart;
+        try {
+            return map(_offsets[b], end - _offsets[b]);
+        } catch (IOException excp) {
+            throw error("could not read %s", _name);
+        }
+    }
+
+    /** Return SIZE bytes of my file starting at OFFSET, mapped. */
+    private ByteBuffer map(long offset, long size) throws IOException {
+        return _channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    /** Return the next LENGTH bytes of BUF, decoded from UTF-8. */
+    private static String text(ByteBuffer buf, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Bytes before the configuration text: MAGIC, bits, text length. */
+    private static final int HEADER_PREFIX = Long.BYTES + 2 * Integer.BYTES;
+
+    /** Bytes in the trailer. */
+    private static final int TRAILER = 2 * Long.BYTES;
+
+    /** Number of blocks processed at once. */
+    private static final int WINDOW = 256;
+
+    /** Name of my file. */
+    private final String _name;
+
+    /** My file. */
+    private FileChannel _channel;
+
+    /** Configuration my messages were written under. */
+    private RotorCatalog _catalog;
+
+    /** Symbol marking the end of a line. */
+    private int _eol;
+
+    /** Bits per symbol. */
+    private int _bits;
+
+    /** Setting lines, by number. */
+    private String[] _settings;
+
+    /** Catalog indices of the rotors of each rotor choice, by
+     *  number. */
+    private int[][] _slots;
+
+    /** Reflector setting of each rotor choice, by number. */
+    private int[] _reflectors;
+
+    /** Plugboards, by number. */
+    private Permutation[] _plugboards;
+
+    /** Offsets of my blocks. */
+    private long[] _offsets;
+
+    /** Offset of my index, just after the last block. */
+    private long _indexStart;
+
+}
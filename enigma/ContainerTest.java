@@ -0,0 +1,177 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/** The suite of all JUnit tests for the Container and ContainerWriter
+ *  classes.
+ *  @author Curtis Wong
+ */
+public class ContainerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 4 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n";
+
+    /** Setting lines used. */
+    private static final String[] SETTINGS = {
+        "* B I II III AAA", "* B III II I QEV (AB) (CD)"
+    };
+
+    /** Return a message line of N letters. */
+    private static String message(int n) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            result.append((char) ('A' + (i * 7) % 26));
+        }
+        return result.toString();
+    }
+
+    /** Return what GroupWriter makes of LINES. */
+    private static String grouped(String... lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter out =
+            new GroupWriter(null, Channels.newChannel(bytes));
+        for (String line : lines) {
+            out.writeLine(line);
+        }
+        out.flush();
+        return bytes.toString();
+    }
+
+    /** Return Container output, decrypted if DECRYPT, as text. */
+    private static String export(Container container, boolean decrypt) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter out = new GroupWriter(container.alphabet(),
+                                          Channels.newChannel(bytes));
+        container.write(out, decrypt);
+        return bytes.toString();
+    }
+
+    /** Return a new temporary file, removed on exit. */
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("enigma", ".tmp");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Run Main for CATALOG on INPUT, once writing text and once a
+     *  container, and return the two output files, in that order. */
+    private static File[] runMain(RotorCatalog catalog, String input)
+        throws IOException {
+        File in = tempFile();
+        File[] outputs = { tempFile(), tempFile() };
+        Files.write(in.toPath(), input.getBytes());
+        for (File output : outputs) {
+            Main main = new Main(catalog, in.getPath(), output.getPath());
+            try {
+                main.setOptions(output == outputs[1]
+                                ? Arrays.asList("--container")
+                                : Arrays.<String>asList());
+                main.process();
+            } finally {
+                main.close();
+            }
+        }
+        return outputs;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void roundTrip() throws IOException {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        String[] plain = { message(40), "", message(3 * 65536 / 2), "X" };
+        String[] cipher = new String[plain.length];
+        File file = File.createTempFile("enigma", ".ctr");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            ContainerWriter out =
+                new ContainerWriter(catalog, stream.getChannel());
+            for (int i = 0; i < plain.length; i += 1) {
+                Machine m = new Machine(catalog);
+                Main.setUp(m, SETTINGS[i % 2]);
+                Machine w = new Machine(catalog);
+                Main.setUp(w, SETTINGS[i % 2]);
+                out.setting(SETTINGS[i % 2], w);
+                cipher[i] = m.convert(plain[i]);
+                out.writeLine(cipher[i]);
+            }
+            out.finish();
+            assertFalse(out.checkError());
+        }
+        try (Container container = new Container(file.getPath())) {
+            assertEquals(5, container.blocks());
+            assertEquals(SETTINGS[0], container.setting(2));
+            assertEquals(grouped(cipher), export(container, false));
+            assertEquals(grouped(plain), export(container, true));
+        }
+    }
+
+    @Test
+    public void inheritedPlugboard() throws IOException {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        String[] plain = { "HELLOWORLD", "MESSAGEONE", "", "AGAIN" };
+        File[] out =
+            runMain(catalog, "* B I II III AAA (AB) (CD)\n" + plain[0]
+                    + "\n* B III II I QEV\n" + plain[1] + "\n\n"
+                    + "* B I II III AAA\n" + plain[3] + "\n");
+        try (Container container = new Container(out[1].getPath())) {
+            assertEquals(3, container.blocks());
+            Permutation plugboard =
+                new Permutation("(AB) (CD)", catalog.alphabet());
+            for (int b = 0; b < 3; b += 1) {
+                assertEquals(plugboard, container.plugboard(b));
+            }
+            assertEquals(new String(Files.readAllBytes(out[0].toPath())),
+                         export(container, false));
+            assertEquals(grouped(plain), export(container, true));
+        }
+    }
+
+    @Test
+    public void inheritedState() throws IOException {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        String[] plain = { "HELLOWORLD", "MESSAGEONE", "", "AGAIN" };
+        File[] out =
+            runMain(catalog, "* B III II I QEV (AB) (CD)\n" + plain[0]
+                    + "\n SOME * THING\n" + plain[1] + "\n\n"
+                    + "* B I II III\n* B III II I\n" + plain[3] + "\n");
+        try (Container container = new Container(out[1].getPath())) {
+            assertEquals(3, container.blocks());
+            assertEquals(" SOME * THING", container.setting(1));
+            assertEquals(new String(Files.readAllBytes(out[0].toPath())),
+                         export(container, false));
+            assertEquals(grouped(plain), export(container, true));
+        }
+    }
+
+    @Test
+    public void symbolWidth() {
+        assertEquals(5, ContainerWriter.bits(26));
+        assertEquals(5, ContainerWriter.bits(31));
+        assertEquals(6, ContainerWriter.bits(32));
+    }
+
+}
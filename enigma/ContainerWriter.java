@@ -0,0 +1,289 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** Writes message lines in the binary container format read by
+ *  Container, as an alternative to the text GroupWriter produces.
+ *  Characters are stored as alphabet indices, BITS each, with the
+ *  otherwise unused index alphabet size marking the end of a line.
+ *  They are grouped into blocks of at most BLOCK_SYMBOLS symbols, each
+ *  within a single setting line, and each headed by the number of that
+ *  setting line in the container's table of them, the numbers in two
+ *  more tables of the rotors and reflector setting and of the plugboard
+ *  in effect (a setting line may leave these as the one before it left
+ *  them), and the rotor settings (as by Machine.snapshot()) at its
+ *  first character, so that any block can be decrypted on its own.  As
+ *  with GroupWriter, I/O errors are recorded for checkError() rather
+ *  than thrown.
+ *
+ *  Layout (big-endian):
+ *    header:  MAGIC, bits per symbol (int), configuration text
+ *    blocks:  setting number (int), rotors number (int), plugboard
+ *             number (int), snapshot (long), symbol count (int),
+ *             symbols packed into longs, least significant bits first
+ *    index:   number of setting lines (int) and each as text, number
+ *             of rotor choices (int) and each as text (the rotor names
+ *             in slot order, then the reflector setting as a number),
+ *             number of plugboards (int) and each as text in cycle
+ *             notation, number of blocks (int) and the offset of each
+ *             (long)
+ *    trailer: offset of index (long), MAGIC
+ *  where text is a byte count (int) followed by UTF-8 bytes.
+ *  @author Curtis Wong
+ */
+class ContainerWriter {
+
+    /** A writer to OUT of characters of the machine configured by
+     *  CATALOG, which must have been read from text. */
+    ContainerWriter(RotorCatalog catalog, WritableByteChannel out) {
+        _catalog = catalog;
+        _alphabet = catalog.alphabet();
+        _out = out;
+        _bits = bits(_alphabet.size());
+        _words = new long[words(BLOCK_SYMBOLS, _bits)];
+        _buffer.putLong(MAGIC).putInt(_bits);
+        putText(catalog.text());
+    }
+
+    /** Start a new block for the setting line SETTING, which has just
+     *  been applied to MACHINE, together with any rotors, settings, or
+     *  plugboard it inherited. */
+    void setting(String setting, Machine machine) {
+        endBlock();
+        _setting = id(setting, _settings, _settingIds);
+        _rotors = id(rotors(machine), _rotorChoices, _rotorIds);
+        _plugboard = id(machine.plugboard(), _plugboards, _plugboardIds);
+        _states = machine.states(Long.MAX_VALUE);
+        _letters = _stepped = 0;
+    }
+
+    /** Write MSG as one complete line. */
+    void writeLine(CharSequence msg) {
+        for (int i = 0; i < msg.length(); i += 1) {
+            put(_alphabet.toInt(msg.charAt(i)));
+            _letters += 1;
+        }
+        put(_alphabet.size());
+    }
+
+    /** Write out the last block, the index, and the trailer. */
+    void finish() {
+        endBlock();
+        ensure(Integer.BYTES);
+        long index = _offset + _buffer.position();
+        _buffer.putInt(_settings.size());
+        for (String setting : _settings) {
+            putText(setting);
+        }
+        ensure(Integer.BYTES);
+        _buffer.putInt(_rotorChoices.size());
+        for (String rotors : _rotorChoices) {
+            putText(rotors);
+        }
+        ensure(Integer.BYTES);
+        _buffer.putInt(_plugboards.size());
+        for (Permutation plugboard : _plugboards) {
+            putText(plugboard.cycles());
+        }
+        ensure(Integer.BYTES);
+        _buffer.putInt(_blockOffsets.size());
+        for (long offset : _blockOffsets) {
+            ensure(Long.BYTES);
+            _buffer.putLong(offset);
+        }
+        ensure(2 * Long.BYTES);
+        _buffer.putLong(index).putLong(MAGIC);
+        drain();
+    }
+
+    /** Return true iff writing has failed at some point. */
+    boolean checkError() {
+        return _error;
+    }
+
+    /** Return the number of bits per symbol for an alphabet of SIZE
+     *  characters plus an end-of-line mark. */
+    static int bits(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /** Return the number of longs that hold COUNT symbols of BITS
+     *  bits. */
+    static int words(int count, int bits) {
+        return (int) (((long) count * bits + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /** Return the rotor names of MACHINE, in slot order, followed by
+     *  its reflector setting, separated by blanks. */
+    private String rotors(Machine machine) {
+        StringBuilder result = new StringBuilder();
+        for (int k : machine.slots()) {
+            result.append(_catalog.name(k)).append(' ');
+        }
+        return result.append(machine.reflectorSetting()).toString();
+    }
+
+    /** Return the number of ITEM in TABLE, whose numbers are in IDS,
+     *  adding it if it is new. */
+    private static <T> int id(T item, ArrayList<T> table,
+                              HashMap<T, Integer> ids) {
+        Integer id = ids.get(item);
+        if (id == null) {
+            id = table.size();
+            table.add(item);
+            ids.put(item, id);
+        }
+        return id;
+    }
+
+    /** Add symbol S to the current block, starting a new block if there
+     *  is none or it is full. */
+    private void put(int s) {
+        if (_count == BLOCK_SYMBOLS) {
+            endBlock();
+        }
+        if (_count == 0) {
+            _snapshot = _states.skip(_letters - _stepped);
+            _stepped = _letters;
+        }
+        long bit = (long) _count * _bits;
+        int w = (int) (bit >>> 6), shift = (int) (bit & 63);
+        _words[w] |= (long) s << shift;
+        if (shift + _bits > Long.SIZE) {
+            _words[w + 1] |= (long) s >>> (Long.SIZE - shift);
+        }
+        _count += 1;
+    }
+
+    /** Write out the current block, if it is not empty. */
+    private void endBlock() {
+        if (_count == 0) {
+            return;
+        }
+        ensure(4 * Integer.BYTES + Long.BYTES);
+        _blockOffsets.add(_offset + _buffer.position());
+        _buffer.putInt(_setting).putInt(_rotors).putInt(_plugboard)
+            .putLong(_snapshot).putInt(_count);
+        for (int i = 0, n = words(_count, _bits); i < n; i += 1) {
+            ensure(Long.BYTES);
+            _buffer.putLong(_words[i]);
+            _words[i] = 0;
+        }
+        _count = 0;
+    }
+
+    /** Add TEXT as a byte count and UTF-8 bytes. */
+    private void putText(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensure(Integer.BYTES);
+        _buffer.putInt(bytes.length);
+        for (int i = 0, n; i < bytes.length; i += n) {
+            ensure(1);
+            n = Math.min(_buffer.remaining(), bytes.length - i);
+            _buffer.put(bytes, i, n);
+        }
+    }
+
+    /** Make room for at least N more bytes in _buffer. */
+    private void ensure(int n) {
+        if (_buffer.remaining() < n) {
+            drain();
+        }
+    }
+
+    /** Write the contents of _buffer to _out. */
+    private void drain() {
+        _buffer.flip();
+        try {
+            while (_buffer.hasRemaining() && !_error) {
+                _offset += _out.write(_buffer);
+            }
+        } catch (IOException excp) {
+            _error = true;
+        }
+        _buffer.clear();
+    }
+
+    /** First and last eight bytes of a container. */
+    static final long MAGIC = 0x454e49474d414333L;
+
+    /** Largest number of symbols in a block. */
+    static final int BLOCK_SYMBOLS = 1 << 16;
+
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Configuration of the machine. */
+    private final RotorCatalog _catalog;
+
+    /** Alphabet of the characters written. */
+    private final Alphabet _alphabet;
+
+    /** Destination of the output. */
+    private final WritableByteChannel _out;
+
+    /** Bits per symbol. */
+    private final int _bits;
+
+    /** Packed symbols of the current block. */
+    private final long[] _words;
+
+    /** Number of symbols in the current block. */
+    private int _count;
+
+    /** Setting number of the current block. */
+    private int _setting;
+
+    /** Rotors number of the current block. */
+    private int _rotors;
+
+    /** Plugboard number of the current block. */
+    private int _plugboard;
+
+    /** Rotor settings at the first character of the current block. */
+    private long _snapshot;
+
+    /** Rotor settings under the current setting line. */
+    private RotorStates _states;
+
+    /** Characters written under the current setting line, and the
+     *  number _states has been advanced past. */
+    private long _letters, _stepped;
+
+    /** Setting lines, in order of first use. */
+    private final ArrayList<String> _settings = new ArrayList<>();
+
+    /** Numbers of the setting lines in _settings. */
+    private final HashMap<String, Integer> _settingIds = new HashMap<>();
+
+    /** Rotor choices, as by rotors(Machine), in order of first use. */
+    private final ArrayList<String> _rotorChoices = new ArrayList<>();
+
+    /** Numbers of the rotor choices in _rotorChoices. */
+    private final HashMap<String, Integer> _rotorIds = new HashMap<>();
+
+    /** Plugboards, in order of first use. */
+    private final ArrayList<Permutation> _plugboards = new ArrayList<>();
+
+    /** Numbers of the plugboards in _plugboards. */
+    private final HashMap<Permutation, Integer> _plugboardIds =
+        new HashMap<>();
+
+    /** Offsets of the blocks written. */
+    private final ArrayList<Long> _blockOffsets = new ArrayList<>();
+
+    /** Bytes not yet written. */
+    private final ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Number of bytes written to _out. */
+    private long _offset;
+
+    /** True once a write has failed. */
+    private boolean _error;
+
+}
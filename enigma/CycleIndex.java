@@ -0,0 +1,382 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** An index from cycle structure to machine settings, in the manner of
+ *  Rejewski's characteristic catalog.  For a rotor order and starting
+ *  position, let A1 ... A6 be the scramblers (Machine.scrambler()) at
+ *  the first six keystrokes.  The cycle types of A1A4, A2A5, and A3A6
+ *  do not depend on the plugboard, and together form the signature of
+ *  that order and position.
+ *
+ *  An index file holds one long per (order, position): a fingerprint of
+ *  the signature in the high bits and the order and position number in
+ *  the low bits, sorted, so that a signature is found by binary search
+ *  in the memory-mapped file.  Fingerprints may collide, so a lookup
+ *  returns candidates.  Machines with a settable reflector are not
+ *  indexed, since positions here cover the moving rotors only.
+ *
+ *  Usage: java enigma.CycleIndex build CONFIG INDEX
+ *         java enigma.CycleIndex lookup INDEX SIGNATURE
+ *  where SIGNATURE is three '/'-separated lists of comma-separated cycle
+ *  lengths, e.g. "13,13/12,12,1,1/10,10,3,3".  Lookup prints one
+ *  setting line ("* REFLECTOR ROTORS... POSITIONS") per candidate.
+ *  @author Curtis Wong
+ */
+class CycleIndex {
+
+    /** Build or search an index as directed by ARGS (see above). */
+    public static void main(String... args) {
+        try {
+            if (args.length == 3 && args[0].equals("build")) {
+                build(new RotorCatalog(Main.readFile(args[1])), args[2]);
+                return;
+            } else if (args.length == 3 && args[0].equals("lookup")) {
+                CycleIndex index = new CycleIndex(args[1]);
+                for (String setting : index.lookup(parse(args[2]))) {
+                    System.out.println(setting);
+                }
+                return;
+            }
+            throw error("usage: build CONFIG INDEX "
+                        + "| lookup INDEX SIGNATURE");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write to the file named NAME an index of every rotor order that
+     *  CATALOG allows and every starting position.  Orders are
+     *  processed in parallel. */
+    static void build(RotorCatalog catalog, String name) {
+        if (catalog.settableReflector()) {
+            throw error("cannot index a machine with a settable "
+                        + "reflector");
+        }
+        ArrayList<int[]> orders = orders(catalog);
+        int size = catalog.alphabet().size();
+        long positions = 1;
+        for (int i = 1; i < catalog.numRotors(); i += 1) {
+            positions *= size;
+        }
+        long total = positions * orders.size();
+        if (orders.isEmpty() || total > MAX_RECORDS) {
+            throw error("cannot index %d orders x %d positions",
+                        orders.size(), positions);
+        }
+        int keyBits = Math.max(1, 64 - Long.numberOfLeadingZeros(total - 1));
+        long[] records = new long[(int) total];
+        long count = positions;
+        IntStream.range(0, orders.size()).parallel().forEach(o -> {
+            Machine machine = machine(catalog, orders.get(o));
+            for (long p = 0; p < count; p += 1) {
+                machine.restore(packed(machine, p));
+                long key = o * count + p;
+                records[(int) key] =
+                    (fingerprint(signature(machine)) >>> (keyBits + 1))
+                    << keyBits | key;
+            }
+        });
+        Arrays.parallelSort(records);
+        write(name, catalog, orders, positions, keyBits, records);
+    }
+
+    /** An index read from the file named NAME. */
+    CycleIndex(String name) {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_PREFIX);
+            if (!readFully(channel, head, 0)
+                || head.flip().getLong() != MAGIC) {
+                throw error("%s is not a cycle index", name);
+            }
+            int headerBytes = head.getInt();
+            if (headerBytes < HEADER_PREFIX) {
+                throw error("%s is not a cycle index", name);
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerBytes);
+            if (!readFully(channel, header, 0)) {
+                throw error("%s is truncated", name);
+            }
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(header.array()));
+            in.skipBytes(HEADER_PREFIX);
+            _keyBits = in.readInt();
+            _positions = in.readLong();
+            _numRotors = in.readInt();
+            _alphabet = new Alphabet(in.readUTF());
+            _orders = new String[in.readInt()];
+            for (int i = 0; i < _orders.length; i += 1) {
+                _orders[i] = in.readUTF();
+            }
+            long count = in.readLong();
+            if (channel.size() != headerBytes + count * Long.BYTES) {
+                throw error("%s is truncated", name);
+            }
+            _records = channel.map(FileChannel.MapMode.READ_ONLY,
+                                   headerBytes, count * Long.BYTES)
+                .asLongBuffer();
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Read from CHANNEL into BUF, which must be empty, the bytes
+     *  starting at POSITION, looping until BUF is full, since a read may
+     *  return fewer.  Returns false if the channel ends first. */
+    private static boolean readFully(FileChannel channel, ByteBuffer buf,
+                                     long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the setting lines of all indexed orders and positions
+     *  whose signature fingerprint matches that of SIGNATURE, three
+     *  arrays of cycle lengths.  Takes time logarithmic in my size,
+     *  plus the number of matches. */
+    ArrayList<String> lookup(int[][] signature) {
+        long fp = fingerprint(signature) >>> (_keyBits + 1);
+        long lo = fp << _keyBits;
+        int k = lowerBound(lo);
+        ArrayList<String> result = new ArrayList<>();
+        for (; k < _records.limit() && (_records.get(k) >>> _keyBits) == fp;
+             k += 1) {
+            long key = _records.get(k) & ((1L << _keyBits) - 1);
+            result.add(setting((int) (key / _positions), key % _positions));
+        }
+        return result;
+    }
+
+    /** Return the index of the first record >= TARGET. */
+    private int lowerBound(long target) {
+        int lo = 0, hi = _records.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_records.get(mid) < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the setting line for order number ORDER at position
+     *  number POSITION. */
+    private String setting(int order, long position) {
+        char[] posn = new char[_numRotors - 1];
+        for (int i = posn.length - 1; i >= 0; i -= 1) {
+            posn[i] = _alphabet.toChar((int) (position % _alphabet.size()));
+            position /= _alphabet.size();
+        }
+        return "* " + _orders[order] + " " + new String(posn);
+    }
+
+    /** Return the signature of MACHINE at its current position: the
+     *  cycle types of A1A4, A2A5, and A3A6.  Steps a copy, leaving
+     *  MACHINE unchanged. */
+    static int[][] signature(Machine machine) {
+        Machine m = machine.copy();
+        Permutation[] a = new Permutation[6];
+        for (int i = 0; i < a.length; i += 1) {
+            m.advance();
+            a[i] = m.scrambler();
+        }
+        int[][] result = new int[3][];
+        for (int i = 0; i < 3; i += 1) {
+            result[i] = a[i].compose(a[i + 3]).cycleType();
+        }
+        return result;
+    }
+
+    /** Return a well-mixed 64-bit hash of SIGNATURE. */
+    static long fingerprint(int[][] signature) {
+        long h = 0;
+        for (int[] lengths : signature) {
+            int[] sorted = lengths.clone();
+            Arrays.sort(sorted);
+            for (int len : sorted) {
+                h = h * 31 + len;
+            }
+            h = h * 31 + 0xff;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Return the signature denoted by TEXT (see the class comment). */
+    static int[][] parse(String text) {
+        String[] groups = text.split("/");
+        if (groups.length != 3) {
+            throw error("signature needs three groups: %s", text);
+        }
+        int[][] result = new int[3][];
+        for (int i = 0; i < 3; i += 1) {
+            String[] lengths = groups[i].split(",");
+            result[i] = new int[lengths.length];
+            for (int j = 0; j < lengths.length; j += 1) {
+                try {
+                    result[i][j] = Integer.parseInt(lengths[j].trim());
+                } catch (NumberFormatException excp) {
+                    throw error("bad cycle length: %s", lengths[j]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the catalog indices of every rotor order CATALOG permits:
+     *  a reflector, then distinct fixed rotors, then distinct moving
+     *  rotors in the pawl slots. */
+    static ArrayList<int[]> orders(RotorCatalog catalog) {
+        ArrayList<int[]> result = new ArrayList<>();
+        fill(catalog, new int[catalog.numRotors()], 0, result);
+        return result;
+    }
+
+    /** Extend the orders in ORDER[0 .. SLOT-1] in all ways, adding the
+     *  completed orders from CATALOG to RESULT. */
+    private static void fill(RotorCatalog catalog, int[] order, int slot,
+                             ArrayList<int[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        boolean moving = slot >= catalog.numRotors() - catalog.numPawls();
+        for (int k = 0; k < catalog.size(); k += 1) {
+            boolean fits = slot == 0 ? catalog.reflecting(k)
+                : !catalog.reflecting(k) && catalog.rotates(k) == moving;
+            for (int i = 1; fits && i < slot; i += 1) {
+                fits = order[i] != k;
+            }
+            if (fits) {
+                order[slot] = k;
+                fill(catalog, order, slot + 1, result);
+            }
+        }
+    }
+
+    /** Return a machine on CATALOG with the rotors in ORDER inserted. */
+    static Machine machine(RotorCatalog catalog, int[] order) {
+        String[] names = new String[order.length];
+        for (int i = 0; i < order.length; i += 1) {
+            names[i] = catalog.name(order[i]);
+        }
+        Machine result = new Machine(catalog);
+        result.insertRotors(names);
+        return result;
+    }
+
+    /** Return position number P of MACHINE (rotor settings as digits,
+     *  leftmost most significant) as a Machine.snapshot() value. */
+    static long packed(Machine machine, long p) {
+        int size = machine.alphabet().size();
+        int bits = machine.settingBits();
+        long result = 0;
+        for (int i = machine.numRotors() - 2, shift = 0; i >= 0;
+             i -= 1, shift += bits) {
+            result |= (p % size) << shift;
+            p /= size;
+        }
+        return result;
+    }
+
+    /** Write the index file NAME for CATALOG, with ORDERS, POSITIONS
+     *  per order, KEYBITS of key per record, and sorted RECORDS. */
+    private static void write(String name, RotorCatalog catalog,
+                              ArrayList<int[]> orders, long positions,
+                              int keyBits, long[] records) {
+        try (RandomAccessFile file = new RandomAccessFile(name, "rw");
+             FileChannel channel = file.getChannel()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeLong(MAGIC);
+            header.writeInt(0);
+            header.writeInt(keyBits);
+            header.writeLong(positions);
+            header.writeInt(catalog.numRotors());
+            StringBuilder chars = new StringBuilder();
+            for (int i = 0; i < catalog.alphabet().size(); i += 1) {
+                chars.append(catalog.alphabet().toChar(i));
+            }
+            header.writeUTF(chars.toString());
+            header.writeInt(orders.size());
+            for (int[] order : orders) {
+                StringBuilder names = new StringBuilder();
+                for (int k : order) {
+                    names.append(names.length() > 0 ? " " : "")
+                        .append(catalog.name(k));
+                }
+                header.writeUTF(names.toString());
+            }
+            header.writeLong(records.length);
+            while (bytes.size() % Long.BYTES != 0) {
+                header.writeByte(0);
+            }
+            ByteBuffer head = ByteBuffer.wrap(bytes.toByteArray());
+            head.putInt(Long.BYTES, head.capacity());
+            file.setLength(0);
+            while (head.hasRemaining()) {
+                channel.write(head, head.position());
+            }
+            LongBuffer out = channel.map(FileChannel.MapMode.READ_WRITE,
+                                         head.capacity(),
+                                         (long) records.length * Long.BYTES)
+                .asLongBuffer();
+            out.put(records);
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Identifies index files. */
+    private static final long MAGIC = 0x454e49474d414349L;
+
+    /** Bytes of the header before its variable part: MAGIC and the
+     *  header length. */
+    private static final int HEADER_PREFIX = Long.BYTES + Integer.BYTES;
+
+    /** Largest number of records an index (one mapped buffer) holds. */
+    private static final long MAX_RECORDS = Integer.MAX_VALUE / Long.BYTES;
+
+    /** Number of low-order record bits holding order and position. */
+    private final int _keyBits;
+
+    /** Number of positions per order. */
+    private final long _positions;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Alphabet of the indexed configuration. */
+    private final Alphabet _alphabet;
+
+    /** Rotor names of each order, space-separated. */
+    private final String[] _orders;
+
+    /** The sorted records, mapped from the index file. */
+    private final LongBuffer _records;
+
+}
@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/** The suite of all JUnit tests for the CycleIndex class.
+ *  @author Curtis Wong
+ */
+public class CycleIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with a small alphabet, four slots, two pawls, two
+     *  reflectors, and three rotors of each other kind. */
+    private static final String CONFIG =
+        "ABCDEFGHIJ\n 4 2\n"
+        + " I MA (AEBHJ) (CDIGF)\n"
+        + " II MC (ABCDEFGHIJ)\n"
+        + " III MF (AJ) (BGICHDEF)\n"
+        + " Alpha N (ADGJCFIBEH)\n"
+        + " Beta N (AF) (BCJ) (DEGHI)\n"
+        + " B R (AB) (CD) (EF) (GH) (IJ)\n"
+        + " C R (AJ) (BI) (CH) (DG) (EF)\n";
+
+    /** Return a new temporary file name for an index. */
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("enigma", ".idx");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Return the setting line for CATALOG with the rotors of ORDER at
+     *  position number P. */
+    private static String setting(RotorCatalog catalog, int[] order,
+                                  long p) {
+        StringBuilder result = new StringBuilder("*");
+        for (int k : order) {
+            result.append(' ').append(catalog.name(k));
+        }
+        Alphabet alpha = catalog.alphabet();
+        char[] posn = new char[order.length - 1];
+        for (int i = posn.length - 1; i >= 0; i -= 1) {
+            posn[i] = alpha.toChar((int) (p % alpha.size()));
+            p /= alpha.size();
+        }
+        return result.append(' ').append(posn).toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void buildThenLookup() throws IOException {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        File file = tempFile();
+        CycleIndex.build(catalog, file.getPath());
+        ArrayList<int[]> orders = CycleIndex.orders(catalog);
+        assertEquals(2 * 2 * 3 * 2, orders.size());
+        assertEquals(0, file.length() % Long.BYTES);
+        assertTrue(file.length() > Long.BYTES * orders.size() * 1000L);
+        CycleIndex index = new CycleIndex(file.getPath());
+        for (int o = 0; o < orders.size(); o += 5) {
+            Machine machine = CycleIndex.machine(catalog, orders.get(o));
+            for (long p = 0; p < 1000; p += 37) {
+                machine.restore(CycleIndex.packed(machine, p));
+                ArrayList<String> found =
+                    index.lookup(CycleIndex.signature(machine));
+                String expected = setting(catalog, orders.get(o), p);
+                assertTrue(expected + " not in " + found,
+                           found.contains(expected));
+            }
+        }
+    }
+
+    @Test
+    public void badFiles() throws IOException {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        File file = tempFile();
+        try {
+            new CycleIndex(file.getPath());
+            fail("read an empty file");
+        } catch (EnigmaException excp) {
+            assertEquals(file.getPath() + " is not a cycle index",
+                         excp.getMessage());
+        }
+        try {
+            CycleIndex.build(new RotorCatalog(
+                CONFIG.replace(" 4 2\n", " 4 2 reflector=settable\n")),
+                             file.getPath());
+            fail("indexed a settable reflector");
+        } catch (EnigmaException excp) {
+            assertEquals("cannot index a machine with a settable reflector",
+                         excp.getMessage());
+        }
+        CycleIndex.build(catalog, file.getPath());
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 1);
+        }
+        try {
+            new CycleIndex(file.getPath());
+            fail("read a truncated index");
+        } catch (EnigmaException excp) {
+            assertEquals(file.getPath() + " is truncated",
+                         excp.getMessage());
+        }
+    }
+
+}
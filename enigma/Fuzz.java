@@ -0,0 +1,401 @@
+package enigma;
+
+import java.util.Locale;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/** Differential fuzzing of the machine.  Each case, determined by a
+ *  seed, is a random alphabet, a random set of rotors written out as a
+ *  configuration file, a random rotor order, pawl count, notches,
+ *  stepping model, positions (the reflector's too, if settable),
+ *  plugboard (not necessarily an involution), and message.  The
+ *  configuration is read the way Main reads it, and the machine set up
+ *  by Main.setUp from a setting line written with random spacing and
+ *  letter case in the rotor names.  The resulting Machine (including
+ *  its snapshot, copy, keystream, and RotorStates
+ *  paths) is checked against a direct reference model that shares no
+ *  code with it, and against the invariants that decryption undoes
+ *  encryption and that no character encrypts to itself.
+ *
+ *  Usage: java enigma.Fuzz [CASES [SEED]]
+ *  Runs CASES cases (default 1000000) in parallel starting from SEED
+ *  (default 0), reports the rate, and exits with code 1 after printing
+ *  the first failing seed, if any, or on bad arguments.
+ *  @author Curtis Wong
+ */
+class Fuzz {
+
+    /** Run cases as directed by ARGS (see above). */
+    public static void main(String... args) {
+        long cases, seed;
+        try {
+            if (args.length > 2) {
+                throw error("usage: java enigma.Fuzz [CASES [SEED]]");
+            }
+            cases = args.length > 0 ? number(args[0]) : 1_000_000;
+            seed = args.length > 1 ? number(args[1]) : 0;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+            return;
+        }
+        AtomicLong failed = new AtomicLong(-1);
+        long start = System.nanoTime();
+        LongStream.range(seed, seed + cases).parallel().forEach(s -> {
+            if (failed.get() < 0) {
+                String msg = check(s);
+                if (msg != null && failed.compareAndSet(-1, s)) {
+                    System.err.printf("seed %d: %s%n", s, msg);
+                }
+            }
+        });
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d cases in %.1fs (%.0f/min)%n", cases, secs,
+                          cases / secs * 60);
+        if (failed.get() >= 0) {
+            System.exit(1);
+        }
+    }
+
+    /** Return the value of the decimal number ARG. */
+    private static long number(String arg) {
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException excp) {
+            throw error("bad number: %s", arg);
+        }
+    }
+
+    /** Run the case determined by SEED, returning null if it passes and
+     *  otherwise a description of the failure. */
+    static String check(long seed) {
+        Case c = new Case(new SplittableRandom(seed));
+        try {
+            return c.check();
+        } catch (RuntimeException excp) {
+            return excp + " on config\n" + c._config;
+        }
+    }
+
+    /** Characters random alphabets are drawn from. */
+    private static final String CHARS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_";
+
+    /** Upper bound on message lengths. */
+    private static final int MAX_MESSAGE = 100;
+
+    /** Interval between checks of Machine.scrambler(), which costs far
+     *  more than a conversion. */
+    private static final int SCRAMBLER_STRIDE = 16;
+
+    /** One randomly generated test case. */
+    private static class Case {
+
+        /** A case drawn from RAND. */
+        Case(SplittableRandom rand) {
+            _rand = rand;
+            _n = 2 * rand.nextInt(1, CHARS.length() / 2 + 1);
+            int[] pick = shuffle(CHARS.length());
+            char[] chars = new char[_n];
+            for (int i = 0; i < _n; i += 1) {
+                chars[i] = CHARS.charAt(pick[i]);
+            }
+            _chars = new String(chars);
+            _numRotors = rand.nextInt(2, 7);
+            _pawls = rand.nextInt(0, _numRotors);
+            _cog = rand.nextBoolean();
+            _settable = rand.nextBoolean();
+            _wiring = new int[_numRotors][];
+            _notches = new boolean[_numRotors][_n];
+            StringBuilder config = new StringBuilder();
+            config.append(_chars).append('\n')
+                .append(' ').append(_numRotors).append(' ').append(_pawls);
+            if (_cog) {
+                config.append(" stepping=cog");
+            } else if (rand.nextBoolean()) {
+                config.append(" stepping=lever");
+            }
+            if (_settable) {
+                config.append(" reflector=settable");
+            }
+            config.append('\n');
+            _names = new String[_numRotors];
+            for (int i = 0; i < _numRotors; i += 1) {
+                _names[i] = "R" + i;
+                _wiring[i] = i == 0 ? matching() : shuffle(_n);
+                String type;
+                if (i == 0) {
+                    type = "R";
+                } else if (i >= _numRotors - _pawls) {
+                    StringBuilder notches = new StringBuilder("M");
+                    for (int k = 0; k < _n; k += 1) {
+                        if (rand.nextInt(4) == 0) {
+                            _notches[i][k] = true;
+                            notches.append(_chars.charAt(k));
+                        }
+                    }
+                    type = notches.toString();
+                } else {
+                    type = "N";
+                }
+                config.append(' ').append(_names[i]).append(' ')
+                    .append(type).append(' ').append(cycles(_wiring[i]))
+                    .append('\n');
+            }
+            _config = config.toString();
+            _settings = new int[_numRotors];
+            for (int i = _settable ? 0 : 1; i < _numRotors; i += 1) {
+                _settings[i] = rand.nextInt(_n);
+            }
+            switch (rand.nextInt(3)) {
+            case 0:
+                _plugboard = matching();
+                break;
+            case 1:
+                _plugboard = shuffle(_n);
+                break;
+            default:
+                _plugboard = identity();
+                break;
+            }
+            _setting = settingLine();
+            _message = new int[rand.nextInt(1, MAX_MESSAGE)];
+            for (int i = 0; i < _message.length; i += 1) {
+                _message[i] = rand.nextInt(_n);
+            }
+        }
+
+        /** Return null if the machine agrees with the reference model and
+         *  satisfies the invariants, or else a description. */
+        String check() {
+            Machine m = machine();
+            long start = m.snapshot();
+            Machine copy = m.copy();
+            Machine keyed = m.copy();
+            keyed.useKeystream(m.keystream(_rand.nextInt(1, 50)));
+            PrimitiveIterator.OfLong states =
+                Spliterators.iterator(m.states(_message.length + 1));
+            if (states.nextLong() != start) {
+                return fail("states", 0);
+            }
+            int[] expected = reference(_message);
+            int[] cipher = new int[_message.length];
+            for (int i = 0; i < _message.length; i += 1) {
+                copy.advance();
+                int c = m.convert(_message[i]);
+                cipher[i] = c;
+                if (states.nextLong() != copy.snapshot()) {
+                    return fail("states", i + 1);
+                } else if (c != expected[i]) {
+                    return fail("convert", i);
+                } else if (c == _message[i]) {
+                    return fail("character encrypted to itself", i);
+                } else if (keyed.convert(_message[i]) != c) {
+                    return fail("keystream conversion", i);
+                } else if (i % SCRAMBLER_STRIDE == 0
+                           && copy.scrambler().permute(_message[i]) != c) {
+                    return fail("scrambler", i);
+                }
+            }
+            if (m.snapshot() != keyed.snapshot()) {
+                return fail("keystream snapshot", _message.length);
+            }
+            m.restore(start);
+            for (int i = 0; i < cipher.length; i += 1) {
+                if (m.convert(cipher[i]) != _message[i]) {
+                    return fail("decrypt(encrypt(x)) != x", i);
+                }
+            }
+            return null;
+        }
+
+        /** Return a description of failure KIND at message position I. */
+        private String fail(String kind, int i) {
+            return String.format("%s at %d with pawls %d, setting \"%s\" "
+                                 + "on config%n%s", kind, i, _pawls,
+                                 _setting, _config);
+        }
+
+        /** Return the Machine for this case, built from its
+         *  configuration text and set up from its setting line. */
+        private Machine machine() {
+            Machine m = new Machine(new RotorCatalog(_config));
+            Main.setUp(m, _setting);
+            return m;
+        }
+
+        /** Return a setting line for this case's rotors, settings, and
+         *  plugboard, with random blanks and tabs between tokens and
+         *  rotor names in random case.  Positions are sometimes left
+         *  out when they are all at 0. */
+        private String settingLine() {
+            StringBuilder result = new StringBuilder(blanks(0)).append('*');
+            for (String name : _names) {
+                result.append(blanks(1)).append(
+                    _rand.nextBoolean() ? name : name.toLowerCase(Locale.ROOT));
+            }
+            boolean zero = true;
+            for (int setting : _settings) {
+                zero &= setting == 0;
+            }
+            if (!zero || _rand.nextBoolean()) {
+                int skip = _settings[0] != 0
+                    || _settable && _rand.nextBoolean() ? 0 : 1;
+                result.append(blanks(1));
+                for (int i = skip; i < _numRotors; i += 1) {
+                    result.append(_chars.charAt(_settings[i]));
+                }
+            }
+            for (String cycle : cycles(_plugboard).split(" ")) {
+                if (!cycle.isEmpty()) {
+                    result.append(blanks(1)).append(cycle);
+                }
+            }
+            return result.append(blanks(0)).toString();
+        }
+
+        /** Return between MIN and MIN + 2 random blanks and tabs. */
+        private String blanks(int min) {
+            StringBuilder result = new StringBuilder();
+            for (int i = _rand.nextInt(min, min + 3); i > 0; i -= 1) {
+                result.append(_rand.nextInt(4) == 0 ? '\t' : ' ');
+            }
+            return result.toString();
+        }
+
+        /** Return the encryption of MSG by the reference model. */
+        private int[] reference(int[] msg) {
+            int[] pos = _settings.clone();
+            int[][] inverse = new int[_numRotors][_n];
+            int[] unplug = new int[_n];
+            for (int i = 0; i < _numRotors; i += 1) {
+                for (int k = 0; k < _n; k += 1) {
+                    inverse[i][_wiring[i][k]] = k;
+                }
+            }
+            for (int k = 0; k < _n; k += 1) {
+                unplug[_plugboard[k]] = k;
+            }
+            int first = _numRotors - _pawls;
+            int[] result = new int[msg.length];
+            boolean[] step = new boolean[_numRotors];
+            for (int j = 0; j < msg.length; j += 1) {
+                for (int i = _numRotors - 1; i >= first; i -= 1) {
+                    if (_cog) {
+                        step[i] = i == _numRotors - 1
+                            || step[i + 1] && _notches[i + 1][pos[i + 1]];
+                    } else {
+                        step[i] = i == _numRotors - 1
+                            || _notches[i + 1][pos[i + 1]]
+                            || (i > first && _notches[i][pos[i]]);
+                    }
+                }
+                for (int i = first; i < _numRotors; i += 1) {
+                    if (step[i]) {
+                        pos[i] = (pos[i] + 1) % _n;
+                    }
+                }
+                int c = _plugboard[msg[j]];
+                for (int i = _numRotors - 1; i > 0; i -= 1) {
+                    c = (_wiring[i][(c + pos[i]) % _n] - pos[i] + _n) % _n;
+                }
+                c = (_wiring[0][(c + pos[0]) % _n] - pos[0] + _n) % _n;
+                for (int i = 1; i < _numRotors; i += 1) {
+                    c = (inverse[i][(c + pos[i]) % _n] - pos[i] + _n) % _n;
+                }
+                result[j] = unplug[c];
+            }
+            return result;
+        }
+
+        /** Return a random permutation of 0 .. N-1. */
+        private int[] shuffle(int n) {
+            int[] result = identity(n);
+            for (int i = n - 1; i > 0; i -= 1) {
+                int k = _rand.nextInt(i + 1);
+                int t = result[i];
+                result[i] = result[k];
+                result[k] = t;
+            }
+            return result;
+        }
+
+        /** Return a random fixed-point-free involution of 0 .. _n-1. */
+        private int[] matching() {
+            int[] order = shuffle(_n);
+            int[] result = new int[_n];
+            for (int i = 0; i < _n; i += 2) {
+                result[order[i]] = order[i + 1];
+                result[order[i + 1]] = order[i];
+            }
+            return result;
+        }
+
+        /** Return the identity permutation of 0 .. _n-1. */
+        private int[] identity() {
+            return identity(_n);
+        }
+
+        /** Return the identity permutation of 0 .. N-1. */
+        private static int[] identity(int n) {
+            int[] result = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                result[i] = i;
+            }
+            return result;
+        }
+
+        /** Return PERM in cycle notation over _chars, with fixed points
+         *  sometimes written out and sometimes omitted. */
+        private String cycles(int[] perm) {
+            StringBuilder result = new StringBuilder();
+            boolean[] seen = new boolean[perm.length];
+            for (int k = 0; k < perm.length; k += 1) {
+                if (seen[k] || (perm[k] == k && _rand.nextBoolean())) {
+                    continue;
+                }
+                result.append(result.length() > 0 ? " (" : "(");
+                for (int p = k; !seen[p]; p = perm[p]) {
+                    seen[p] = true;
+                    result.append(_chars.charAt(p));
+                }
+                result.append(')');
+            }
+            return result.toString();
+        }
+
+        /** Source of randomness for this case. */
+        private final SplittableRandom _rand;
+        /** Alphabet size (even, so that reflectors can be matchings). */
+        private final int _n;
+        /** Alphabet characters. */
+        private final String _chars;
+        /** Number of rotor slots and of pawls. */
+        private final int _numRotors, _pawls;
+        /** True iff the rotors step like an odometer; true iff the
+         *  reflector is settable. */
+        private final boolean _cog, _settable;
+        /** Rotor names, in slot order. */
+        private final String[] _names;
+        /** _wiring[i] is the forward mapping of the rotor in slot I. */
+        private final int[][] _wiring;
+        /** _notches[i][k] is true iff slot I's rotor has a notch at K. */
+        private final boolean[][] _notches;
+        /** Initial rotor settings, by slot. */
+        private final int[] _settings;
+        /** Plugboard mapping. */
+        private final int[] _plugboard;
+        /** Message, as alphabet indices. */
+        private final int[] _message;
+        /** Configuration file text. */
+        private final String _config;
+        /** Setting line. */
+        private final String _setting;
+    }
+
+}
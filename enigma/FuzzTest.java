@@ -0,0 +1,28 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** A short run of the differential fuzzer (see Fuzz) as a unit test.
+ *  @author Curtis Wong
+ */
+public class FuzzTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Number of seeded cases to run. */
+    private static final int CASES = 2000;
+
+    @Test
+    public void machineMatchesReference() {
+        for (long seed = 0; seed < CASES; seed += 1) {
+            String failure = Fuzz.check(seed);
+            assertNull("seed " + seed + ": " + failure, failure);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.Checksum;
+
+/** Writes message lines in groups of five characters separated by
+ *  blanks, one line per message line, exactly as Main has always
+ *  printed them.  Characters go straight into a reusable buffer, with
+ *  blanks and line separators inserted inline, and are encoded and
+ *  written to a channel only when the buffer fills or on flush(), so
+ *  that writing allocates nothing per character or per line.  As with
+ *  PrintStream, I/O errors are recorded for checkError() rather than
+ *  thrown.
+ *  @author Curtis Wong
+ */
+class GroupWriter {
+
+    /** A writer of characters of ALPHABET to OUT, encoded in the
+     *  default charset. */
+    GroupWriter(Alphabet alphabet, WritableByteChannel out) {
+        _alphabet = alphabet;
+        _out = out;
+        _chars = CharBuffer.allocate(BUFFER_SIZE);
+        _encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = ByteBuffer.allocate(
+            (int) (BUFFER_SIZE * _encoder.maxBytesPerChar()) + 16);
+    }
+
+    /** Add character C to the current line, starting a new group if the
+     *  current one is full. */
+    void write(char c) {
+        if (_chars.remaining() < 2) {
+            drain();
+        }
+        if (_column == GROUP_SIZE) {
+            _chars.put(' ');
+            _column = 0;
+        }
+        _chars.put(c);
+        _column += 1;
+    }
+
+    /** Add the character with index K in my alphabet to the current
+     *  line. */
+    void writeIndex(int k) {
+        write(_alphabet.toChar(k));
+    }
+
+    /** End the current line. */
+    void endLine() {
+        if (_chars.remaining() < LINE_SEPARATOR.length()) {
+            drain();
+        }
+        _chars.put(LINE_SEPARATOR);
+        _column = 0;
+    }
+
+    /** Write MSG as one complete line. */
+    void writeLine(CharSequence msg) {
+        for (int i = 0; i < msg.length(); i += 1) {
+            write(msg.charAt(i));
+        }
+        endLine();
+    }
+
+    /** Write out everything buffered so far. */
+    void flush() {
+        drain();
+    }
+
+    /** Flush and close my channel. */
+    void close() {
+        drain();
+        try {
+            _out.close();
+        } catch (IOException excp) {
+            _error = true;
+        }
+    }
+
+    /** Return true iff writing has failed at some point. */
+    boolean checkError() {
+        return _error;
+    }
+
+    /** Return the number of bytes written to my channel so far. */
+    long written() {
+        return _written;
+    }
+
+    /** Add each byte I write from now on to SUM, which should already
+     *  cover any output before it. */
+    void setChecksum(Checksum sum) {
+        _sum = sum;
+    }
+
+    /** Return the value of the checksum given to setChecksum. */
+    long checksum() {
+        return _sum.getValue();
+    }
+
+    /** Encode the buffered characters and write them to _out. */
+    private void drain() {
+        _chars.flip();
+        _encoder.encode(_chars, _bytes, true);
+        _encoder.reset();
+        _chars.clear();
+        _bytes.flip();
+        if (_sum != null) {
+            _sum.update(_bytes.array(), 0, _bytes.limit());
+        }
+        try {
+            while (_bytes.hasRemaining() && !_error) {
+                _written += _out.write(_bytes);
+            }
+        } catch (IOException excp) {
+            _error = true;
+        }
+        _bytes.clear();
+    }
+
+    /** Number of characters in a group. */
+    static final int GROUP_SIZE = 5;
+
+    /** Size of the character buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Terminates each line. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Alphabet for writeIndex. */
+    private final Alphabet _alphabet;
+
+    /** Destination of the output. */
+    private final WritableByteChannel _out;
+
+    /** Characters not yet encoded. */
+    private final CharBuffer _chars;
+
+    /** Encodes _chars for _out. */
+    private final CharsetEncoder _encoder;
+
+    /** Encoded bytes not yet written. */
+    private final ByteBuffer _bytes;
+
+    /** Characters in the current group so far. */
+    private int _column;
+
+    /** Number of bytes written to _out. */
+    private long _written;
+
+    /** Checksum of the bytes written, or null if not kept. */
+    private Checksum _sum;
+
+    /** True once a write has failed. */
+    private boolean _error;
+
+}
@@ -0,0 +1,665 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** A brute-force search for the rotor order and starting position that
+ *  decrypt a ciphertext, shared among worker processes.  The keyspace
+ *  is every rotor order the configuration allows (as for CycleIndex)
+ *  times every starting position.  Machines with a settable reflector
+ *  are not searched, since their reflector positions are not
+ *  enumerated.  It is cut into shards of at most
+ *  SHARD_POSITIONS positions of one order, numbered order by order.
+ *
+ *  A coordinator hands shards to workers over TCP connections, one at a
+ *  time, and merges the best results each returns into an overall
+ *  top K, ranked by the index of coincidence of the decryption (with no
+ *  plugboard).  It records finished shards and the top K in a
+ *  checkpoint file, replaced atomically, so that a search that is
+ *  interrupted resumes where it left off when started again with the
+ *  same checkpoint.  A shard whose worker fails is handed to another.
+ *  If no worker is connected for a while with shards left (all have
+ *  died, say), the coordinator saves its checkpoint and gives up.
+ *
+ *  The protocol is lines of text.  On connecting, a worker receives
+ *  "CONFIG N" and the N lines of the configuration, "TEXT" and the
+ *  ciphertext letters, and "TOP K"; then, repeatedly, "SHARD S", to
+ *  which it answers "RESULT S N" and N lines "SCORE ORDER POSITION",
+ *  until it receives "DONE".
+ *
+ *  Usage: java enigma.KeySearch search CONFIG CIPHERTEXT CHECKPOINT
+ *                                      [--workers=N] [--port=P] [--top=K]
+ *                                      [--timeout=S]
+ *         java enigma.KeySearch work HOST PORT
+ *  The first starts a coordinator listening on the loopback interface
+ *  at port P (default: any free port, which it reports), starts N local
+ *  worker processes (default: one per processor), and prints the top K
+ *  (default 10) setting lines with their scores.  It fails if no worker
+ *  is connected for S seconds (default 60) before the search is done.
+ *  The second runs one worker for the coordinator at HOST and PORT, so
+ *  that more workers may be added by hand.
+ *  @author Curtis Wong
+ */
+class KeySearch {
+
+    /** Search or work as directed by ARGS (see above). */
+    public static void main(String... args) {
+        try {
+            ArrayList<String> files = new ArrayList<>();
+            int workers = Runtime.getRuntime().availableProcessors();
+            int port = 0, top = DEFAULT_TOP, timeout = DEFAULT_TIMEOUT;
+            for (String arg : args) {
+                if (arg.startsWith("--workers=")) {
+                    workers = intOption(arg);
+                } else if (arg.startsWith("--port=")) {
+                    port = intOption(arg);
+                } else if (arg.startsWith("--top=")) {
+                    top = Math.max(1, intOption(arg));
+                } else if (arg.startsWith("--timeout=")) {
+                    timeout = intOption(arg);
+                } else if (arg.startsWith("--")) {
+                    throw error("unknown option: %s", arg);
+                } else {
+                    files.add(arg);
+                }
+            }
+            if (files.size() == 4 && files.get(0).equals("search")) {
+                KeySearch search =
+                    new KeySearch(Main.readFile(files.get(1)),
+                                  Main.readFile(files.get(2)), top);
+                search.coordinate(Paths.get(files.get(3)), workers, port,
+                                  timeout);
+                search.print();
+                return;
+            } else if (files.size() == 3 && files.get(0).equals("work")) {
+                work(files.get(1), intOption("=" + files.get(2)));
+                return;
+            }
+            throw error("usage: search CONFIG CIPHERTEXT CHECKPOINT "
+                        + "[--workers=N] [--port=P] [--top=K] "
+                        + "[--timeout=S] | work HOST PORT");
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search of the keyspace of configuration CONFIG for the
+     *  decryption of CIPHERTEXT, keeping the TOP best candidates.
+     *  Blanks and line breaks in CIPHERTEXT are ignored. */
+    KeySearch(String config, String ciphertext, int top) {
+        _config = config;
+        _catalog = new RotorCatalog(config);
+        if (_catalog.settableReflector()) {
+            throw error("cannot search a machine with a settable "
+                        + "reflector");
+        }
+        _orders = CycleIndex.orders(_catalog);
+        _top = top;
+        Alphabet alphabet = _catalog.alphabet();
+        StringBuilder letters = new StringBuilder();
+        for (int i = 0; i < ciphertext.length(); i += 1) {
+            char c = ciphertext.charAt(i);
+            if (alphabet.contains(c)) {
+                letters.append(c);
+            } else if (!Character.isWhitespace(c)) {
+                throw error("ciphertext character %c not in alphabet", c);
+            }
+        }
+        _letters = letters.toString();
+        if (_letters.length() < 2) {
+            throw error("ciphertext too short to score");
+        }
+        _text = new int[_letters.length()];
+        for (int i = 0; i < _text.length; i += 1) {
+            _text[i] = alphabet.toInt(_letters.charAt(i));
+        }
+        long positions = 1;
+        for (int i = 1; i < _catalog.numRotors(); i += 1) {
+            positions = Math.multiplyExact(positions, alphabet.size());
+        }
+        _positions = positions;
+        _shardsPerOrder = (positions + SHARD_POSITIONS - 1) / SHARD_POSITIONS;
+        long shards = _shardsPerOrder * _orders.size();
+        if (shards == 0 || shards > Integer.MAX_VALUE) {
+            throw error("cannot search %d orders x %d positions",
+                        _orders.size(), positions);
+        }
+        _shards = (int) shards;
+    }
+
+    /** Return the number of shards in my keyspace. */
+    int shards() {
+        return _shards;
+    }
+
+    /** Return my current best candidates as lines "SCORE SETTING", best
+     *  first. */
+    synchronized ArrayList<String> results() {
+        Candidate[] best = _best.toArray(new Candidate[0]);
+        Arrays.sort(best, RANKING.reversed());
+        ArrayList<String> result = new ArrayList<>();
+        for (Candidate c : best) {
+            result.add(String.format("%.6f %s", c._score,
+                                     setting(c._order, c._position)));
+        }
+        return result;
+    }
+
+    /** Print results() on the standard output. */
+    void print() {
+        for (String line : results()) {
+            System.out.println(line);
+        }
+    }
+
+    /** Return the best candidates in shard S, best last. */
+    ArrayList<Candidate> searchShard(int s) {
+        int order = (int) (s / _shardsPerOrder);
+        long lo = (s % _shardsPerOrder) * SHARD_POSITIONS;
+        long hi = Math.min(_positions, lo + SHARD_POSITIONS);
+        Machine machine = CycleIndex.machine(_catalog, _orders.get(order));
+        PriorityQueue<Candidate> best = new PriorityQueue<>(RANKING);
+        int[] counts = new int[_catalog.alphabet().size()];
+        for (long p = lo; p < hi; p += 1) {
+            machine.restore(CycleIndex.packed(machine, p));
+            Arrays.fill(counts, 0);
+            for (int c : _text) {
+                counts[machine.convert(c)] += 1;
+            }
+            double score = coincidence(counts, _text.length);
+            if (best.size() < _top || score > best.peek()._score) {
+                offer(best, new Candidate(score, order, p), _top);
+            }
+        }
+        ArrayList<Candidate> result = new ArrayList<>(best);
+        result.sort(RANKING);
+        return result;
+    }
+
+    /** Run a coordinator for my search, resuming from and checkpointing
+     *  to CHECKPOINT, listening on loopback port PORT (any free port if
+     *  0), and starting WORKERS local worker processes.  Returns when
+     *  every shard is finished.  If no worker is connected for TIMEOUT
+     *  seconds before then, saves the checkpoint and throws an
+     *  error. */
+    void coordinate(Path checkpoint, int workers, int port, int timeout) {
+        _checkpoint = checkpoint;
+        if (Files.exists(checkpoint)) {
+            load(checkpoint);
+        }
+        for (int s = _done.nextClearBit(0); s < _shards;
+             s = _done.nextClearBit(s + 1)) {
+            _pending.add(s);
+        }
+        ArrayList<Process> processes = new ArrayList<>();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocket server = new ServerSocket(port, BACKLOG, loopback)) {
+            System.err.printf("KeySearch: %d of %d shards left; "
+                              + "listening on port %d%n", _pending.size(),
+                              _shards, server.getLocalPort());
+            Thread acceptor = new Thread(() -> accept(server),
+                                         "KeySearch acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            for (int i = 0; i < workers && !_pending.isEmpty(); i += 1) {
+                processes.add(spawn(server.getLocalPort()));
+            }
+            long limit = TimeUnit.SECONDS.toNanos(timeout);
+            synchronized (this) {
+                _idleSince = System.nanoTime();
+                while (_done.cardinality() < _shards) {
+                    if (_connected == 0
+                        && System.nanoTime() - _idleSince >= limit) {
+                        save();
+                        throw error("no workers for %d seconds with %d "
+                                    + "shards left; progress saved in %s",
+                                    timeout, _shards - _done.cardinality(),
+                                    checkpoint);
+                    }
+                    wait(POLL_MILLIS);
+                }
+                save();
+            }
+        } catch (IOException excp) {
+            throw error("coordinator failed: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("search interrupted");
+        } finally {
+            for (Process process : processes) {
+                reap(process);
+            }
+        }
+    }
+
+    /** Run one worker for the coordinator at HOST and PORT until it says
+     *  it is done. */
+    static void work(String host, int port) {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               false,
+                                               StandardCharsets.UTF_8)) {
+            int lines = Integer.parseInt(expect(in, "CONFIG"));
+            StringBuilder config = new StringBuilder();
+            for (int i = 0; i < lines; i += 1) {
+                config.append(readLine(in)).append('\n');
+            }
+            expect(in, "TEXT");
+            String text = readLine(in);
+            int top = Integer.parseInt(expect(in, "TOP"));
+            KeySearch search = new KeySearch(config.toString(), text, top);
+            for (String line = readLine(in); !line.equals("DONE");
+                 line = readLine(in)) {
+                if (!line.startsWith("SHARD ")) {
+                    throw error("unexpected from coordinator: %s", line);
+                }
+                int s = Integer.parseInt(line.substring(6));
+                ArrayList<Candidate> best = search.searchShard(s);
+                out.printf("RESULT %d %d%n", s, best.size());
+                for (Candidate c : best) {
+                    out.println(c);
+                }
+                out.flush();
+            }
+        } catch (IOException | NumberFormatException excp) {
+            throw error("worker failed: %s", excp.getMessage());
+        }
+    }
+
+    /** Accept connections from workers on SERVER until it is closed,
+     *  serving each on its own thread. */
+    private void accept(ServerSocket server) {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                Thread t = new Thread(() -> serve(socket), "KeySearch worker");
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException excp) {
+            /* The server has been closed. */
+        }
+    }
+
+    /** Give shards to the worker connected by SOCKET and collect its
+     *  results until no shards remain or the worker fails, in which
+     *  case its current shard goes back in the queue. */
+    private void serve(Socket socket) {
+        int shard = -1;
+        connected(1);
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               false,
+                                               StandardCharsets.UTF_8)) {
+            String[] config = _config.split("\n", -1);
+            out.printf("CONFIG %d%n", config.length);
+            for (String line : config) {
+                out.println(line);
+            }
+            out.printf("TEXT%n%s%nTOP %d%n", _letters, _top);
+            while ((shard = next()) >= 0) {
+                out.printf("SHARD %d%n", shard);
+                out.flush();
+                String[] head = readLine(in).split(" ");
+                if (head.length != 3 || !head[0].equals("RESULT")
+                    || Integer.parseInt(head[1]) != shard) {
+                    throw error("bad reply from worker");
+                }
+                ArrayList<Candidate> found = new ArrayList<>();
+                for (int n = Integer.parseInt(head[2]); n > 0; n -= 1) {
+                    found.add(Candidate.parse(readLine(in)));
+                }
+                finish(shard, found);
+                shard = -1;
+            }
+            out.println("DONE");
+        } catch (IOException | RuntimeException excp) {
+            if (shard >= 0) {
+                System.err.printf("KeySearch: worker lost on shard %d: %s%n",
+                                  shard, excp.getMessage());
+                requeue(shard);
+            }
+        } finally {
+            connected(-1);
+        }
+    }
+
+    /** Add DELTA to the number of connected workers, noting when it
+     *  drops to 0. */
+    private synchronized void connected(int delta) {
+        _connected += delta;
+        if (_connected == 0) {
+            _idleSince = System.nanoTime();
+        }
+    }
+
+    /** Return the next shard to search, waiting while all remaining
+     *  shards are out with workers, or -1 if every shard is done. */
+    private synchronized int next() throws IOException {
+        try {
+            while (_pending.isEmpty()) {
+                if (_done.cardinality() == _shards) {
+                    return -1;
+                }
+                wait();
+            }
+        } catch (InterruptedException excp) {
+            throw new IOException("interrupted");
+        }
+        return _pending.remove();
+    }
+
+    /** Put shard S back in the queue. */
+    private synchronized void requeue(int s) {
+        if (!_done.get(s)) {
+            _pending.add(s);
+            notifyAll();
+        }
+    }
+
+    /** Record that shard S is finished, with best candidates FOUND, and
+     *  checkpoint if it is time. */
+    private synchronized void finish(int s, ArrayList<Candidate> found) {
+        if (_done.get(s)) {
+            return;
+        }
+        _done.set(s);
+        for (Candidate c : found) {
+            offer(_best, c, _top);
+        }
+        if (System.nanoTime() - _lastSave >= CHECKPOINT_INTERVAL) {
+            save();
+        }
+        notifyAll();
+    }
+
+    /** Write my progress to _checkpoint, replacing it atomically (see
+     *  Checkpoint.replace). */
+    private synchronized void save() {
+        StringBuilder text = new StringBuilder();
+        text.append(CHECKPOINT_HEADER).append(' ').append(_shards)
+            .append(' ').append(Integer.toHexString(identity()))
+            .append("\ndone");
+        for (long word : _done.toLongArray()) {
+            text.append(' ').append(Long.toHexString(word));
+        }
+        text.append('\n');
+        for (Candidate c : _best) {
+            text.append(c).append('\n');
+        }
+        Checkpoint.replace(_checkpoint, text.toString());
+        _lastSave = System.nanoTime();
+    }
+
+    /** Restore my progress from the checkpoint file NAME. */
+    private void load(Path name) {
+        String[] lines = Main.readFile(name.toString()).split("\n");
+        String[] head = lines[0].split(" ");
+        if (head.length != 3 || !head[0].equals(CHECKPOINT_HEADER)
+            || lines.length < 2 || !lines[1].startsWith("done")) {
+            throw error("%s is not a search checkpoint", name);
+        }
+        if (!head[1].equals(Integer.toString(_shards))
+            || !head[2].equals(Integer.toHexString(identity()))) {
+            throw error("checkpoint %s is for a different search", name);
+        }
+        try {
+            String[] words = lines[1].substring(4).trim().split(" ");
+            long[] done = new long[words[0].isEmpty() ? 0 : words.length];
+            for (int i = 0; i < done.length; i += 1) {
+                done[i] = Long.parseUnsignedLong(words[i], 16);
+            }
+            _done.or(BitSet.valueOf(done));
+            for (int i = 2; i < lines.length; i += 1) {
+                offer(_best, Candidate.parse(lines[i]), _top);
+            }
+        } catch (NumberFormatException excp) {
+            throw error("corrupt checkpoint %s", name);
+        }
+    }
+
+    /** Return a hash identifying my configuration and ciphertext. */
+    private int identity() {
+        return _config.hashCode() * 31 + _letters.hashCode();
+    }
+
+    /** Return the setting line for order number ORDER at position
+     *  number POSITION. */
+    private String setting(int order, long position) {
+        Alphabet alphabet = _catalog.alphabet();
+        StringBuilder result = new StringBuilder("*");
+        for (int k : _orders.get(order)) {
+            result.append(' ').append(_catalog.name(k));
+        }
+        char[] posn = new char[_catalog.numRotors() - 1];
+        for (int i = posn.length - 1; i >= 0; i -= 1) {
+            posn[i] = alphabet.toChar((int) (position % alphabet.size()));
+            position /= alphabet.size();
+        }
+        return result.append(' ').append(posn).toString();
+    }
+
+    /** Start a worker process for the coordinator on local port PORT. */
+    private static Process spawn(int port) throws IOException {
+        String java =
+            Paths.get(System.getProperty("java.home"), "bin", "java")
+            .toString();
+        return new ProcessBuilder(java, "-cp",
+                                  System.getProperty("java.class.path"),
+                                  KeySearch.class.getName(), "work",
+                                  InetAddress.getLoopbackAddress()
+                                  .getHostAddress(),
+                                  Integer.toString(port))
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    }
+
+    /** Wait briefly for PROCESS to exit, and kill it if it does not. */
+    private static void reap(Process process) {
+        try {
+            if (!process.waitFor(REAP_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException excp) {
+            process.destroyForcibly();
+        }
+    }
+
+    /** Add C to BEST, a queue with the worst candidate at its head,
+     *  keeping only the TOP best. */
+    private static void offer(PriorityQueue<Candidate> best, Candidate c,
+                              int top) {
+        best.add(c);
+        if (best.size() > top) {
+            best.remove();
+        }
+    }
+
+    /** Return the index of coincidence of a text of length N whose
+     *  letter counts are COUNTS: the chance that two of its letters
+     *  drawn at random are equal.  It is about 1/size for random text
+     *  and markedly higher for natural language. */
+    static double coincidence(int[] counts, int n) {
+        long pairs = 0;
+        for (int c : counts) {
+            pairs += (long) c * (c - 1);
+        }
+        return (double) pairs / ((long) n * (n - 1));
+    }
+
+    /** Return the rest of the next line from IN, which must start with
+     *  KEYWORD. */
+    private static String expect(BufferedReader in, String keyword)
+        throws IOException {
+        String line = readLine(in);
+        if (!line.equals(keyword) && !line.startsWith(keyword + " ")) {
+            throw error("expected %s, got %s", keyword, line);
+        }
+        return line.substring(keyword.length()).trim();
+    }
+
+    /** Return the next line from IN, which must not be at its end. */
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException("connection closed");
+        }
+        return line;
+    }
+
+    /** Return the non-negative value of OPTION, "...=VALUE". */
+    private static int intOption(String option) {
+        try {
+            int value =
+                Integer.parseInt(option.substring(option.indexOf('=') + 1));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("bad value in option %s", option);
+    }
+
+    /** A scored setting: an order number and position number. */
+    static class Candidate {
+
+        /** A candidate at ORDER and POSITION scoring SCORE. */
+        Candidate(double score, int order, long position) {
+            _score = score;
+            _order = order;
+            _position = position;
+        }
+
+        /** Return the candidate written as TEXT by toString(). */
+        static Candidate parse(String text) {
+            String[] fields = text.split(" ");
+            if (fields.length != 3) {
+                throw error("bad candidate: %s", text);
+            }
+            return new Candidate(Double.parseDouble(fields[0]),
+                                 Integer.parseInt(fields[1]),
+                                 Long.parseLong(fields[2]));
+        }
+
+        @Override
+        public String toString() {
+            return _score + " " + _order + " " + _position;
+        }
+
+        /** Index of coincidence of the decryption. */
+        private final double _score;
+        /** Rotor order number. */
+        private final int _order;
+        /** Starting position number. */
+        private final long _position;
+    }
+
+    /** Orders candidates from worst to best, breaking ties in score in
+     *  favor of earlier settings so that results do not depend on the
+     *  order in which shards finish. */
+    private static final Comparator<Candidate> RANKING =
+        Comparator.<Candidate>comparingDouble(c -> c._score)
+        .thenComparing(c -> c._order, Comparator.reverseOrder())
+        .thenComparing(c -> c._position, Comparator.reverseOrder());
+
+    /** Largest number of positions in a shard. */
+    static final long SHARD_POSITIONS = 1 << 12;
+
+    /** Default number of candidates kept. */
+    private static final int DEFAULT_TOP = 10;
+
+    /** Default time, in seconds, the coordinator waits with no worker
+     *  connected. */
+    private static final int DEFAULT_TIMEOUT = 60;
+
+    /** Interval, in milliseconds, at which the coordinator checks for
+     *  an absence of workers. */
+    private static final long POLL_MILLIS = 500;
+
+    /** Minimum time between checkpoints, in nanoseconds. */
+    private static final long CHECKPOINT_INTERVAL =
+        TimeUnit.SECONDS.toNanos(2);
+
+    /** First word of a checkpoint file. */
+    private static final String CHECKPOINT_HEADER = "enigma-keysearch-1";
+
+    /** Queue length for pending worker connections. */
+    private static final int BACKLOG = 64;
+
+    /** Time allowed for workers to exit once the search is done. */
+    private static final int REAP_SECONDS = 5;
+
+    /** Configuration file text. */
+    private final String _config;
+
+    /** Rotors available. */
+    private final RotorCatalog _catalog;
+
+    /** Every rotor order allowed, as catalog indices. */
+    private final ArrayList<int[]> _orders;
+
+    /** Ciphertext letters, without blanks. */
+    private final String _letters;
+
+    /** Ciphertext, as alphabet indices. */
+    private final int[] _text;
+
+    /** Number of candidates kept. */
+    private final int _top;
+
+    /** Number of starting positions for each order. */
+    private final long _positions;
+
+    /** Number of shards for each order. */
+    private final long _shardsPerOrder;
+
+    /** Total number of shards. */
+    private final int _shards;
+
+    /** Finished shards. */
+    private final BitSet _done = new BitSet();
+
+    /** Shards neither finished nor out with a worker. */
+    private final ArrayDeque<Integer> _pending = new ArrayDeque<>();
+
+    /** Best candidates so far, worst first. */
+    private final PriorityQueue<Candidate> _best =
+        new PriorityQueue<>(RANKING);
+
+    /** Checkpoint file, for a coordinator. */
+    private Path _checkpoint;
+
+    /** System.nanoTime() of the last checkpoint. */
+    private long _lastSave = System.nanoTime();
+
+    /** Number of workers connected. */
+    private int _connected;
+
+    /** System.nanoTime() at which _connected last became 0. */
+    private long _idleSince;
+
+}
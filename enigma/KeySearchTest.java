@@ -0,0 +1,177 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/** The suite of all JUnit tests for the KeySearch class.  These start
+ *  worker processes, on the class path of the test.
+ *  @author Curtis Wong
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with three slots, so six orders of 676
+     *  positions, one shard each. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 3 2\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n";
+
+    /** The key used to encrypt CIPHERTEXT. */
+    private static final String KEY = "* B III I KM";
+
+    /** A plaintext long enough to stand out by its index of
+     *  coincidence. */
+    private static final String PLAIN =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOODMADEOFSLIDING"
+        + "FOLDINGROSEWOODNEATLYPUTITALLTOGETHERINITSCASEITLAYCOMPACTLY"
+        + "FOLDEDINTONEARLYNOTHINGBUTHEOPENEDOUTTHEHINGESPUSHEDANDPULLED"
+        + "THEJOINTSANDHINGESTILLITLOOKEDALLSQUARESANDOBLONGSLIKEA"
+        + "COMPLICATEDFIGUREINTHESECONDBOOKOFEUCLID";
+
+    /** Return the encryption of PLAIN under KEY. */
+    private static String ciphertext() {
+        Machine machine = new Machine(new RotorCatalog(CONFIG));
+        Main.setUp(machine, KEY);
+        return machine.convert(PLAIN);
+    }
+
+    /** Return a new temporary checkpoint file name, for a file that does
+     *  not yet exist. */
+    private static Path checkpoint() throws IOException {
+        File file = File.createTempFile("enigma", ".ckpt");
+        file.delete();
+        file.deleteOnExit();
+        return file.toPath();
+    }
+
+    /** Return a free loopback port. */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket =
+             new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /** Act as a worker for the coordinator on loopback port PORT that
+     *  finishes one shard and then disconnects, as if killed. */
+    private static void workOneShard(int port) throws IOException {
+        for (int tries = 0; true; tries += 1) {
+            try (Socket socket =
+                 new Socket(InetAddress.getLoopbackAddress(), port);
+                 BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(),
+                                           StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(
+                     socket.getOutputStream(), false,
+                     StandardCharsets.UTF_8)) {
+                int lines = Integer.parseInt(in.readLine().substring(7));
+                StringBuilder config = new StringBuilder();
+                for (int i = 0; i < lines; i += 1) {
+                    config.append(in.readLine()).append('\n');
+                }
+                assertEquals("TEXT", in.readLine());
+                String text = in.readLine();
+                int top = Integer.parseInt(in.readLine().substring(4));
+                String shard = in.readLine();
+                assertTrue(shard, shard.startsWith("SHARD "));
+                int s = Integer.parseInt(shard.substring(6));
+                ArrayList<KeySearch.Candidate> best =
+                    new KeySearch(config.toString(), text, top)
+                    .searchShard(s);
+                out.printf("RESULT %d %d%n", s, best.size());
+                for (KeySearch.Candidate c : best) {
+                    out.println(c);
+                }
+                out.flush();
+                return;
+            } catch (java.net.ConnectException excp) {
+                if (tries == 100) {
+                    throw excp;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException interrupt) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void twoWorkers() throws IOException {
+        KeySearch search = new KeySearch(CONFIG, ciphertext(), 3);
+        assertEquals(6, search.shards());
+        search.coordinate(checkpoint(), 2, 0, 30);
+        ArrayList<String> results = search.results();
+        assertEquals(3, results.size());
+        assertTrue(results.get(0), results.get(0).endsWith(" " + KEY));
+    }
+
+    @Test
+    public void settableReflector() {
+        try {
+            new KeySearch(CONFIG.replace(" 3 2\n",
+                                         " 3 2 reflector=settable\n"),
+                          ciphertext(), 3);
+            fail("searched a settable reflector");
+        } catch (EnigmaException excp) {
+            assertEquals("cannot search a machine with a settable "
+                         + "reflector", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void resumeAfterWorkersDie() throws Exception {
+        Path ckpt = checkpoint();
+        int port = freePort();
+        KeySearch first = new KeySearch(CONFIG, ciphertext(), 3);
+        Thread worker = new Thread(() -> {
+            try {
+                workOneShard(port);
+            } catch (IOException excp) {
+                /* The coordinator's failure below is checked instead. */
+            }
+        });
+        worker.start();
+        try {
+            first.coordinate(ckpt, 0, port, 1);
+            fail("coordinator waited with no workers");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().contains("5 shards left"));
+        }
+        worker.join();
+        KeySearch resumed = new KeySearch(CONFIG, ciphertext(), 3);
+        resumed.coordinate(ckpt, 2, 0, 30);
+        KeySearch whole = new KeySearch(CONFIG, ciphertext(), 3);
+        whole.coordinate(checkpoint(), 2, 0, 30);
+        assertEquals(whole.results(), resumed.results());
+        assertTrue(resumed.results().get(0).endsWith(" " + KEY));
+    }
+
+}
@@ -0,0 +1,102 @@
+package enigma;
+
+import java.util.concurrent.CancellationException;
+
+/** The substitutions a machine will make over its next few keystrokes,
+ *  computed ahead of time.  An Enigma's output at each position does
+ *  not depend on the text, so once a setting is known its first
+ *  length() substitution tables can be built in the background, and
+ *  the message then encrypted by table lookup alone (see
+ *  Machine.useKeystream).
+ *  @author Curtis Wong
+ */
+class Keystream {
+
+    /** The next DEPTH substitutions of MACHINE, which is stepped (the
+     *  caller passes a copy it owns).  Throws CancellationException if
+     *  the thread is interrupted meanwhile, as when a prefetch is
+     *  cancelled. */
+    Keystream(Machine machine, int depth) {
+        int size = machine.alphabet().size();
+        _start = machine.snapshot();
+        _reflector = machine.reflectorSetting();
+        _slots = machine.slots();
+        _plugboard = machine.plugboard();
+        _size = size;
+        _table = new int[depth * size];
+        _snapshots = new long[depth];
+        for (int i = 0; i < depth; i += 1) {
+            if (Thread.interrupted()) {
+                throw new CancellationException("keystream interrupted");
+            }
+            machine.advance();
+            for (int c = 0; c < size; c += 1) {
+                _table[i * size + c] = machine.scramble(c);
+            }
+            _snapshots[i] = machine.snapshot();
+        }
+    }
+
+    /** Return the number of keystrokes I cover. */
+    int length() {
+        return _snapshots.length;
+    }
+
+    /** Return the conversion of C at keystroke I (numbering from 0). */
+    int convert(int i, int c) {
+        return _table[i * _size + c];
+    }
+
+    /** Return the machine's snapshot() just after keystroke I. */
+    long snapshot(int i) {
+        return _snapshots[i];
+    }
+
+    /** Return the snapshot() of the machine I was computed from. */
+    long start() {
+        return _start;
+    }
+
+    /** Return the reflector setting I was computed with. */
+    int reflectorSetting() {
+        return _reflector;
+    }
+
+    /** Return the catalog indices of the rotors I was computed with. */
+    int[] slots() {
+        return _slots;
+    }
+
+    /** Return the plugboard I was computed with. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the number of bytes a keystream of DEPTH keystrokes over
+     *  an alphabet of SIZE characters occupies, roughly. */
+    static long bytes(int depth, int size) {
+        return (long) depth * (size * Integer.BYTES + Long.BYTES);
+    }
+
+    /** Rotor settings of the machine at the start. */
+    private final long _start;
+
+    /** Reflector setting of the machine. */
+    private final int _reflector;
+
+    /** Rotors of the machine. */
+    private final int[] _slots;
+
+    /** Plugboard of the machine. */
+    private final Permutation _plugboard;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** _table[i * _size + c] is the conversion of C at keystroke I. */
+    private final int[] _table;
+
+    /** Rotor settings after each keystroke. */
+    private final long[] _snapshots;
+
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A histogram of durations in nanoseconds that any number of threads
+ *  may record into without locking.  As in HdrHistogram, buckets are
+ *  linear within each power of two: durations under 32 ns are counted
+ *  exactly, and each power of two above that is split into 16 buckets,
+ *  so every recorded value is counted within 1/16 (6.25%) of its true
+ *  value, from 1 ns up to centuries, in a fixed array of 960 counters.
+ *  The last bucket ends at Long.MAX_VALUE, so no value overflows.
+ *  @author Curtis Wong
+ */
+class LatencyHistogram {
+
+    /** An empty histogram called NAME. */
+    LatencyHistogram(String name) {
+        _name = name;
+        _counts = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+    }
+
+    /** Count one duration of NANOS nanoseconds. */
+    void record(long nanos) {
+        long v = Math.max(0, nanos);
+        _counts.incrementAndGet(bucket(v));
+        _total.incrementAndGet();
+        _sum.addAndGet(v);
+        _max.accumulateAndGet(v, Math::max);
+    }
+
+    /** Return the number of durations recorded. */
+    long count() {
+        return _total.get();
+    }
+
+    /** Return (approximately) the smallest duration that at least
+     *  FRACTION of the recorded durations do not exceed. */
+    long percentile(double fraction) {
+        long total = _total.get();
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < _counts.length(); i += 1) {
+            seen += _counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), _max.get());
+            }
+        }
+        return _max.get();
+    }
+
+    /** Print a one-line summary of me, in microseconds, on OUT. */
+    void print(PrintStream out) {
+        long n = _total.get();
+        out.printf("%-8s count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f "
+                   + "p99.9=%.1f max=%.1f (us)%n", _name, n,
+                   n == 0 ? 0.0 : _sum.get() / 1e3 / n,
+                   percentile(0.5) / 1e3, percentile(0.9) / 1e3,
+                   percentile(0.99) / 1e3, percentile(0.999) / 1e3,
+                   _max.get() / 1e3);
+    }
+
+    /** Return the index of the bucket counting V >= 0. */
+    static int bucket(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return shift * HALF + (int) (v >>> shift);
+    }
+
+    /** Return the largest value counted by bucket I. */
+    static long highest(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int shift = i / HALF - 1;
+        long low = (long) (i % HALF + HALF) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /** Bits of precision within each power of two. */
+    private static final int SUB_BITS = 5;
+
+    /** Durations below this many nanoseconds are counted exactly. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Number of buckets per power of two. */
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    /** Name printed with my summary. */
+    private final String _name;
+
+    /** Count of durations in each bucket. */
+    private final AtomicLongArray _counts;
+
+    /** Number of durations recorded. */
+    private final AtomicLong _total = new AtomicLong();
+
+    /** Sum of the durations recorded. */
+    private final AtomicLong _sum = new AtomicLong();
+
+    /** Largest duration recorded. */
+    private final AtomicLong _max = new AtomicLong();
+
+}
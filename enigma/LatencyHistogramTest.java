@@ -0,0 +1,131 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the LatencyHistogram class.
+ *  @author Curtis Wong
+ */
+public class LatencyHistogramTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Index of the last bucket. */
+    private static final int LAST = LatencyHistogram.bucket(Long.MAX_VALUE);
+
+    /** Check that ESTIMATE is no less than EXACT and exceeds it by at
+     *  most 1/16 of it. */
+    private static void checkClose(String msg, long exact, long estimate) {
+        assertTrue(msg + ": " + estimate + " < " + exact, estimate >= exact);
+        assertTrue(msg + ": " + estimate + " too far above " + exact,
+                   estimate - exact <= exact / 16);
+    }
+
+    /** Record VALUES in a new histogram and check its percentiles
+     *  against those of VALUES themselves. */
+    private static void checkPercentiles(long[] values) {
+        LatencyHistogram hist = new LatencyHistogram("test");
+        for (long v : values) {
+            hist.record(v);
+        }
+        assertEquals(values.length, hist.count());
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double f : new double[] { 0.0, 0.1, 0.5, 0.9, 0.99, 0.999,
+                                       1.0 }) {
+            int rank = Math.max(1, (int) Math.ceil(f * sorted.length));
+            checkClose("p" + f, sorted[rank - 1], hist.percentile(f));
+        }
+        assertEquals(sorted[sorted.length - 1], hist.percentile(1.0));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void exactBelow32() {
+        for (int v = 0; v < 32; v += 1) {
+            assertEquals(v, LatencyHistogram.bucket(v));
+            assertEquals(v, LatencyHistogram.highest(v));
+        }
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        assertEquals(959, LAST);
+        assertEquals(16, LatencyHistogram.bucket(64)
+                     - LatencyHistogram.bucket(32));
+        assertEquals(16, LatencyHistogram.bucket(1L << 40)
+                     - LatencyHistogram.bucket(1L << 39));
+        for (int i = 0; i < LAST; i += 1) {
+            long top = LatencyHistogram.highest(i);
+            assertEquals(i, LatencyHistogram.bucket(top));
+            assertEquals(i + 1, LatencyHistogram.bucket(top + 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highest(LAST));
+    }
+
+    @Test
+    public void resolution() {
+        Random rand = new Random(37);
+        for (int k = 0; k < 100000; k += 1) {
+            long v = (rand.nextLong() >>> 1) >>> rand.nextInt(63);
+            checkClose("value", v,
+                       LatencyHistogram.highest(LatencyHistogram.bucket(v)));
+        }
+    }
+
+    @Test
+    public void uniform() {
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = 1000L * (i + 1);
+        }
+        checkPercentiles(values);
+    }
+
+    @Test
+    public void exponential() {
+        Random rand = new Random(61);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = (long) (-50000 * Math.log(1 - rand.nextDouble()));
+        }
+        checkPercentiles(values);
+    }
+
+    @Test
+    public void extremes() {
+        LatencyHistogram hist = new LatencyHistogram("test");
+        hist.record(-5);
+        hist.record(Long.MAX_VALUE);
+        assertEquals(0, hist.percentile(0.5));
+        assertEquals(Long.MAX_VALUE, hist.percentile(1.0));
+    }
+
+    @Test
+    public void summary() {
+        LatencyHistogram hist = new LatencyHistogram("convert");
+        for (long v : new long[] { 1000, 2000, 3000, 4000 }) {
+            hist.record(v);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        hist.print(new PrintStream(bytes, true));
+        assertEquals(String.format("convert  count=4 mean=%.1f p50=%.1f "
+                                   + "p90=%.1f p99=%.1f p99.9=%.1f "
+                                   + "max=%.1f (us)%n", 2.5, 2.0, 4.0,
+                                   4.0, 4.0, 4.0),
+                     bytes.toString());
+    }
+
+}
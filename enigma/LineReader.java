@@ -0,0 +1,152 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/** Reads lines from a stream of bytes, as BufferedReader.readLine()
+ *  does, while keeping count of the bytes consumed, so that reading can
+ *  later be resumed at the start of any line.  Lines end at "\n", "\r",
+ *  or "\r\n" and are decoded in the default charset, which must (like
+ *  UTF-8 and ISO-8859-1) encode those characters as single bytes.
+ *  @author Curtis Wong
+ */
+class LineReader implements Closeable {
+
+    /** A reader of lines from IN, whose first byte is at OFFSET in the
+     *  whole input. */
+    LineReader(InputStream in, long offset, int bufferSize) {
+        _in = in;
+        _buf = new byte[bufferSize];
+        _bufStart = offset;
+    }
+
+    /** Return the next line, without its terminator, or null at the end
+     *  of input. */
+    String readLine() throws IOException {
+        _carryLen = 0;
+        boolean partial = false;
+        while (true) {
+            if (_pos == _limit && !fill()) {
+                return partial ? decode(0, 0) : null;
+            }
+            int start = _pos;
+            while (_pos < _limit && _buf[_pos] != '\n'
+                   && _buf[_pos] != '\r') {
+                _pos += 1;
+            }
+            if (_pos == _limit) {
+                carry(start, _pos);
+                partial = true;
+                continue;
+            }
+            String line = decode(start, _pos);
+            byte end = _buf[_pos];
+            _pos += 1;
+            if (end == '\r' && (_pos < _limit || fill())
+                && _buf[_pos] == '\n') {
+                _pos += 1;
+            }
+            return line;
+        }
+    }
+
+    /** Return the offset in the whole input of the first byte not yet
+     *  returned as part of a line: the start of the next line. */
+    long offset() {
+        return _bufStart + _pos;
+    }
+
+    /** Add each byte I consume from now on to SUM, which should already
+     *  cover the input before it. */
+    void setChecksum(Checksum sum) {
+        _sum = sum;
+        _summed = _pos;
+    }
+
+    /** Return the value of the checksum given to setChecksum, brought up
+     *  to offset(). */
+    long checksum() {
+        _sum.update(_buf, _summed, _pos - _summed);
+        _summed = _pos;
+        return _sum.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /** Replace my buffer with the next bytes of input, returning false if
+     *  there are none. */
+    private boolean fill() throws IOException {
+        if (_sum != null) {
+            _sum.update(_buf, _summed, _limit - _summed);
+        }
+        _bufStart += _limit;
+        _pos = _limit = _summed = 0;
+        int n = _in.read(_buf);
+        if (n <= 0) {
+            return false;
+        }
+        _limit = n;
+        return true;
+    }
+
+    /** Save _buf[START .. END-1] as part of a line that continues in the
+     *  next buffer. */
+    private void carry(int start, int end) {
+        int len = end - start;
+        if (_carryLen + len > _carry.length) {
+            _carry = Arrays.copyOf(_carry,
+                                   Math.max(2 * _carry.length,
+                                            _carryLen + len));
+        }
+        System.arraycopy(_buf, start, _carry, _carryLen, len);
+        _carryLen += len;
+    }
+
+    /** Return the characters of any carried part of a line followed by
+     *  _buf[START .. END-1]. */
+    private String decode(int start, int end) {
+        if (_carryLen == 0) {
+            return new String(_buf, start, end - start, CHARSET);
+        }
+        carry(start, end);
+        String result = new String(_carry, 0, _carryLen, CHARSET);
+        _carryLen = 0;
+        return result;
+    }
+
+    /** Encoding of the input. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Source of bytes. */
+    private final InputStream _in;
+
+    /** Bytes read but not yet consumed are _buf[_pos .. _limit-1]. */
+    private final byte[] _buf;
+
+    /** Position of the next unconsumed byte and end of valid bytes in
+     *  _buf. */
+    private int _pos, _limit;
+
+    /** Offset in the whole input of _buf[0]. */
+    private long _bufStart;
+
+    /** Checksum of the bytes consumed, or null if not kept. */
+    private Checksum _sum;
+
+    /** Bytes before _buf[_summed] have been added to _sum. */
+    private int _summed;
+
+    /** Start of a line that spans buffers. */
+    private byte[] _carry = new byte[256];
+
+    /** Number of bytes in _carry. */
+    private int _carryLen;
+
+}
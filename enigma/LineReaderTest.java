@@ -0,0 +1,66 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The suite of all JUnit tests for the LineReader class.
+ *  @author Curtis Wong
+ */
+public class LineReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the lines of TEXT, read OFFSET bytes in with a buffer of
+     *  SIZE bytes, each followed by the offset after it. */
+    private static ArrayList<String> read(String text, int offset,
+                                          int size) throws IOException {
+        byte[] bytes = text.getBytes();
+        LineReader in =
+            new LineReader(new ByteArrayInputStream(bytes, offset,
+                                                    bytes.length - offset),
+                           offset, size);
+        ArrayList<String> result = new ArrayList<>();
+        for (String line = in.readLine(); line != null;
+             line = in.readLine()) {
+            result.add(line);
+            result.add(Long.toString(in.offset()));
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void terminators() throws IOException {
+        String text = "AB\nC\r\n\rDEF\r\nG";
+        for (int size = 1; size <= text.length() + 1; size += 1) {
+            assertEquals("buffer " + size,
+                         List.of("AB", "3", "C", "6", "", "7",
+                                 "DEF", "12", "G", "13"),
+                         read(text, 0, size));
+        }
+    }
+
+    @Test
+    public void resumeAtOffset() throws IOException {
+        String text = "* B I II III AAA\r\nHELLO\r\n\r\nWORLD\n";
+        ArrayList<String> all = read(text, 0, 4);
+        for (int i = 1; i < all.size(); i += 2) {
+            int offset = Integer.parseInt(all.get(i));
+            assertEquals(all.subList(i + 1, all.size()),
+                         read(text, offset, 4));
+        }
+    }
+
+}
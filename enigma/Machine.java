@@ -1,7 +1,8 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Objects;
 
 import static enigma.EnigmaException.*;
 
@@ -15,13 +16,52 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
-        _alphabet = alpha;
-        _pawls = pawls;
-        _numRotors = numRotors;
-        _allRotors = new ArrayList<>(allRotors);
-        _rotors = new Rotor[numRotors];
-        _plugboard = new Permutation("", alpha);
+        this(new RotorCatalog(alpha, numRotors, pawls, allRotors));
+    }
+
+    /** A new Enigma machine whose alphabet, slots, pawls, and available
+     *  rotors are those of CATALOG.  Rotors are built from CATALOG only
+     *  when first inserted. */
+    Machine(RotorCatalog catalog) {
+        if (catalog.numRotors() <= 1) {
+            throw error("machine needs at least 2 rotor slots");
+        }
+        if (catalog.numPawls() >= catalog.numRotors()) {
+            throw error("too many pawls: %d", catalog.numPawls());
+        }
+        _alphabet = catalog.alphabet();
+        _pawls = catalog.numPawls();
+        _numRotors = catalog.numRotors();
+        _stepping = catalog.stepping();
+        _catalog = catalog;
+        _loaded = new Rotor[catalog.size()];
+        _rotors = new Rotor[_numRotors];
+        _slots = new int[_numRotors];
+        _plugboard = new Permutation("", _alphabet);
+    }
 
+    /** A copy of ORIGINAL (see copy()). */
+    private Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _pawls = original._pawls;
+        _numRotors = original._numRotors;
+        _stepping = original._stepping;
+        _catalog = original._catalog;
+        _loaded = new Rotor[original._loaded.length];
+        _rotors = new Rotor[_numRotors];
+        _slots = original._slots.clone();
+        _plugboard = original._plugboard;
+        for (int i = 0; i < _numRotors; i += 1) {
+            if (original._rotors[i] != null) {
+                _rotors[i] = original._rotors[i].copy();
+                _loaded[_slots[i]] = _rotors[i];
+            }
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -35,70 +75,240 @@ class Machine {
     }
 
     /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
-     *  Initially, all rotors are set at their 0 setting. */
+     *  available rotors (ROTORS[0] names the reflector).  Names are looked
+     *  up without regard to case.  The reflector must come first, moving
+     *  rotors must fill exactly the numPawls() rightmost slots, and no
+     *  rotor may be used twice.  Initially, all rotors are set at their
+     *  0 setting. */
     void insertRotors(String[] rotors) {
-        int count = 0;
-        for (String name: rotors) {
-            for (Rotor rotor: _allRotors) {
-                String upper = rotor.name().toUpperCase();
-                String upperlower = rotor.name().substring(0, 1).toUpperCase() + rotor.name().substring(1);
-                if (count == _allRotors.size()) {
-                    break;
-                } else if ((rotor.name().equals(name)) || upper.equals(name) || upperlower.equals(name)) {
-                    _rotors[count] = rotor;
-                    count += 1;
+        sync();
+        if (rotors.length != _numRotors) {
+            throw error("expected %d rotors, got %d", _numRotors,
+                        rotors.length);
+        }
+        int firstMoving = _numRotors - _pawls;
+        for (int i = 0; i < rotors.length; i += 1) {
+            int k = _catalog.find(rotors[i]);
+            if (k < 0) {
+                throw error("unknown rotor: %s", rotors[i]);
+            }
+            for (int j = 0; j < i; j += 1) {
+                if (_slots[j] == k) {
+                    throw error("rotor %s used twice", rotors[i]);
                 }
             }
+            if ((i == 0) != _catalog.reflecting(k)) {
+                throw error(i == 0 ? "first rotor %s is not a reflector"
+                            : "reflector %s not in first slot", rotors[i]);
+            }
+            if (i > 0 && (i >= firstMoving) != _catalog.rotates(k)) {
+                throw error(i >= firstMoving ? "rotor %s should be moving"
+                            : "moving rotor %s in fixed slot", rotors[i]);
+            }
+            _slots[i] = k;
+        }
+        for (int i = 0; i < rotors.length; i += 1) {
+            _rotors[i] = loadRotor(_slots[i]);
+            _rotors[i].set(0);
         }
     }
 
+    /** Return the rotor built from entry K of my catalog, building and
+     *  caching it on first use. */
+    private Rotor loadRotor(int k) {
+        if (_loaded[k] == null) {
+            _loaded[k] = _catalog.rotor(k);
+        }
+        return _loaded[k];
+    }
+
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
-     *  to the leftmost rotor setting (not counting the reflector).  */
+     *  to the leftmost rotor setting (not counting the reflector).  If
+     *  my reflector is settable, SETTING may instead have numRotors()
+     *  characters, the first of which sets the reflector. */
     void setRotors(String setting) {
-        if (setting.length() != _numRotors - 1) {
+        sync();
+        int skip = _numRotors - setting.length();
+        if (skip != 1 && (skip != 0 || !settableReflector())) {
             throw new EnigmaException("Initial positions string wrong length");
         }
-        if (numRotors() - 1 != setting.length()) {
-            throw new EnigmaException("Setting must be string of numRotors-1");
-        }
-        for (int i = 1; i < 5; i += 1) {
-            if (!(_alphabet.contains(setting.charAt(i - 1)))) {
+        for (int i = skip; i < _numRotors; i += 1) {
+            char c = setting.charAt(i - skip);
+            if (!_alphabet.contains(c)) {
                 throw new EnigmaException("Position setting not in alphabet");
             }
-            if (!_rotors[i].reflecting()) {
-                _rotors[i].set(setting.charAt(i - 1));
-            }
-            _rotors[i].set(setting.charAt(i - 1));
+            _rotors[i].set(c);
         }
     }
 
+    /** Return true iff my reflector can be set to positions other than
+     *  0. */
+    boolean settableReflector() {
+        return _catalog.settableReflector();
+    }
+
+    /** Return the setting of my reflector (always 0 unless it is
+     *  settable).  It is not part of snapshot(), since it does not
+     *  change as I am stepped. */
+    int reflectorSetting() {
+        return _rotors[0].setting();
+    }
+
+    /** Return how my moving rotors step. */
+    Stepping stepping() {
+        return _stepping;
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        sync();
         _plugboard = plugboard;
     }
 
+    /** Return the settings of my rotors (other than the reflector)
+     *  packed into a long, the leftmost rotor in the most significant
+     *  bits, ceil(log2(alphabet size)) bits per rotor.  Together with
+     *  the rotor and plugboard choice, this is my entire state. */
+    long snapshot() {
+        if (_keystream != null) {
+            return _keyPos == 0 ? _keystream.start()
+                : _keystream.snapshot(_keyPos - 1);
+        }
+        int bits = settingBits();
+        long packed = 0;
+        for (int i = 1; i < _numRotors; i += 1) {
+            packed = (packed << bits) | _rotors[i].permutation().wrap(
+                _rotors[i].setting());
+        }
+        return packed;
+    }
+
+    /** Set my rotors (other than the reflector) to the settings in
+     *  PACKED, a value returned by snapshot() for the same rotors. */
+    void restore(long packed) {
+        _keystream = null;
+        int bits = settingBits();
+        long mask = (1L << bits) - 1;
+        for (int i = _numRotors - 1; i > 0; i -= 1) {
+            _rotors[i].set((int) (packed & mask));
+            packed >>>= bits;
+        }
+    }
+
+    /** Put into my slots the rotors that are entries SLOTS of my catalog,
+     *  set my reflector to REFLECTOR and my other rotors to SNAPSHOT, and
+     *  use PLUGBOARD: the state that slots(), reflectorSetting(),
+     *  snapshot(), and plugboard() reported of a machine on the same
+     *  catalog. */
+    void setState(int[] slots, int reflector, long snapshot,
+                  Permutation plugboard) {
+        String[] names = new String[slots.length];
+        for (int i = 0; i < slots.length; i += 1) {
+            names[i] = _catalog.name(slots[i]);
+        }
+        insertRotors(names);
+        _rotors[0].set(reflector);
+        restore(snapshot);
+        _plugboard = plugboard;
+    }
+
+    /** Return the number of bits snapshot() uses per rotor. */
+    int settingBits() {
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(
+            _alphabet.size() - 1));
+        if (bits * (_numRotors - 1) > Long.SIZE) {
+            throw error("rotor settings do not fit in a snapshot");
+        }
+        return bits;
+    }
+
+    /** Return a new machine with my rotors, settings, and plugboard.
+     *  Wiring is shared; only the rotors' settings are copied, so the
+     *  two machines may then be stepped independently. */
+    Machine copy() {
+        sync();
+        return new Machine(this);
+    }
+
+    /** Return a keystream of my next DEPTH substitutions, computed on a
+     *  copy, leaving me unchanged.  Safe to call from another thread
+     *  only if I am not being used meanwhile. */
+    Keystream keystream(int depth) {
+        return new Keystream(copy(), depth);
+    }
+
+    /** Take my next conversions from KEYSTREAM, if it was computed from
+     *  a machine with my rotors, settings, and plugboard, returning true
+     *  iff it was.  My rotors catch up to the keystream when it runs out
+     *  or when anything else about me is used or changed. */
+    boolean useKeystream(Keystream keystream) {
+        sync();
+        if (keystream.start() != snapshot()
+            || keystream.reflectorSetting() != reflectorSetting()
+            || !Arrays.equals(keystream.slots(), _slots)
+            || !Objects.equals(keystream.plugboard(), _plugboard)) {
+            return false;
+        }
+        _keystream = keystream;
+        _keyPos = 0;
+        return true;
+    }
+
+    /** If I am using a keystream, stop, setting my rotors to where
+     *  conversion has brought them. */
+    private void sync() {
+        if (_keystream != null) {
+            Keystream keystream = _keystream;
+            _keystream = null;
+            if (_keyPos > 0) {
+                restore(keystream.snapshot(_keyPos - 1));
+            }
+        }
+    }
+
+    /** Return the characters of the settings at which the rotor in slot
+     *  K is at a notch. */
+    String notches(int k) {
+        return _rotors[k].notches();
+    }
+
+    /** Return the packed settings (as by snapshot()) my rotors will have
+     *  after 0, 1, ..., COUNT-1 more keystrokes, leaving me unchanged. */
+    RotorStates states(long count) {
+        return new RotorStates(this, count);
+    }
+
+    /** Return the catalog indices of the rotors in my slots. */
+    int[] slots() {
+        return _slots.clone();
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        boolean[] move = new boolean[_rotors.length];
-        int count = c;
-        for (int i = _numRotors - numPawls(); i < _rotors.length - 1; i += 1) {
-            if (_rotors[i + 1].atNotch()) {
-                move[i] = true;
-            } else if (_rotors[i - 1].rotates() && _rotors[i].atNotch()) {
-                move[i] = true;
-            }
-        }
-        move[move.length - 1] = true;
-        for (int j = 0; j < move.length; j += 1) {
-            if (move[j]) {
-                _rotors[j].advance();
+        if (_keystream != null) {
+            int result = _keystream.convert(_keyPos, c);
+            _keyPos += 1;
+            if (_keyPos == _keystream.length()) {
+                sync();
             }
+            return result;
         }
+        advance();
+        return scramble(c);
+    }
 
+    /** Return the conversion of C at my current settings, without
+     *  advancing. */
+    int scramble(int c) {
+        int count = c;
         if (_plugboard != null) {
             count = _plugboard.permute(count);
         }
@@ -114,14 +324,40 @@ class Machine {
         return count;
     }
 
+    /** Advance my rotors as for one keystroke. */
+    void advance() {
+        sync();
+        _stepping.advance(_rotors, _numRotors - _pawls);
+    }
+
+    /** Return the permutation my plugboard and rotors apply at their
+     *  current settings, without advancing: the conjugate composition
+     *  of the plugboard, the rotors from right to left, the reflector,
+     *  and the inverses back out.  Applying it to C gives what
+     *  convert(C) would give if the rotors did not step first. */
+    Permutation scrambler() {
+        sync();
+        Permutation inner =
+            _rotors[0].permutation().conjugate(_rotors[0].setting());
+        for (int k = 1; k < _rotors.length; k += 1) {
+            Permutation rotor =
+                _rotors[k].permutation().conjugate(_rotors[k].setting());
+            inner = rotor.compose(inner).compose(rotor.inverse());
+        }
+        if (_plugboard != null) {
+            inner = _plugboard.compose(inner).compose(_plugboard.inverse());
+        }
+        return inner;
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String s = "";
-        for (int i = 0; i < msg.length(); i += 1) {
-            s += _alphabet.toChar(this.convert(_alphabet.toInt(msg.charAt(i))));
+        char[] s = new char[msg.length()];
+        for (int i = 0; i < s.length; i += 1) {
+            s[i] = _alphabet.toChar(convert(_alphabet.toInt(msg.charAt(i))));
         }
-        return s;
+        return new String(s);
     }
 
     /** Common alphabet of my rotors. */
@@ -133,12 +369,27 @@ class Machine {
     /** Total number of pawls. */
     private int _pawls;
 
+    /** How my moving rotors step. */
+    private final Stepping _stepping;
+
     /** Array of rotors formatting the machine. */
     private Rotor[] _rotors;
 
     /** Initial plugboard. */
     private Permutation _plugboard;
-    /** Arraylist containing all rotors. */
-    private ArrayList<Rotor> _allRotors;
+    /** Index of all available rotors. */
+    private final RotorCatalog _catalog;
+
+    /** Keystream supplying my conversions, or null. */
+    private Keystream _keystream;
+
+    /** Number of keystrokes of _keystream used so far. */
+    private int _keyPos;
+
+    /** Catalog indices of the rotors in my slots. */
+    private final int[] _slots;
+
+    /** Rotors already built from _catalog, indexed like _catalog. */
+    private final Rotor[] _loaded;
 
 }
@@ -0,0 +1,198 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author Curtis Wong
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with five slots, three pawls, and two
+     *  reflectors. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n"
+        + " C R (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "   (QZ) (SX) (UY)\n";
+
+    /** Check that inserting ROTORS into a machine for CONFIG fails with
+     *  the error MSG. */
+    private static void checkRejected(String msg, String... rotors) {
+        Machine m = new Machine(new RotorCatalog(CONFIG));
+        try {
+            m.insertRotors(rotors);
+            fail("accepted " + String.join(" ", rotors));
+        } catch (EnigmaException excp) {
+            assertEquals(msg, excp.getMessage());
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void insertRotors() {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        Machine m = new Machine(catalog);
+        m.insertRotors(new String[] { "b", "Beta", "iii", "IV", "I" });
+        assertEquals(0, m.snapshot());
+        Machine expected = new Machine(catalog);
+        expected.insertRotors(new String[] { "B", "BETA", "III", "IV", "I" });
+        assertEquals(expected.convert("HELLOWORLD"), m.convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void wrongCount() {
+        checkRejected("expected 5 rotors, got 4", "B", "Beta", "III", "IV");
+        checkRejected("expected 5 rotors, got 6",
+                      "B", "Beta", "III", "IV", "I", "II");
+    }
+
+    @Test
+    public void unknownName() {
+        checkRejected("unknown rotor: V", "B", "Beta", "III", "IV", "V");
+        checkRejected("unknown rotor: Bet", "B", "Bet", "III", "IV", "I");
+    }
+
+    @Test
+    public void duplicate() {
+        checkRejected("rotor III used twice",
+                      "B", "Beta", "III", "IV", "III");
+        checkRejected("rotor iii used twice",
+                      "B", "Beta", "III", "IV", "iii");
+    }
+
+    @Test
+    public void wrongSlotKind() {
+        checkRejected("first rotor Beta is not a reflector",
+                      "Beta", "B", "III", "IV", "I");
+        checkRejected("reflector C not in first slot",
+                      "B", "Beta", "C", "IV", "I");
+        checkRejected("rotor Gamma should be moving",
+                      "B", "Beta", "III", "IV", "Gamma");
+        checkRejected("moving rotor I in fixed slot",
+                      "B", "I", "III", "IV", "II");
+    }
+
+    @Test
+    public void compileOnlyUsedRotors() {
+        RotorCatalog catalog =
+            new RotorCatalog(CONFIG + " BAD MA (AA)\n VI MZ (A1)\n");
+        Machine m = new Machine(catalog);
+        m.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        assertEquals(10, m.convert("HELLOWORLD").length());
+        String[][] bad = {
+            { "BAD", "character 'A' appears twice in cycles" },
+            { "VI", "character '1' not in alphabet" } };
+        for (String[] rotor : bad) {
+            try {
+                m.insertRotors(new String[] { "B", "Beta", "III", "IV",
+                                              rotor[0] });
+                fail("compiled " + rotor[0]);
+            } catch (EnigmaException excp) {
+                assertEquals(rotor[1], excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void duplicateNames() {
+        for (String extra : new String[] { " I MA (AB)\n", " i MA (AB)\n",
+                                           " b R (AB)\n" }) {
+            try {
+                new RotorCatalog(CONFIG + extra);
+                fail("accepted" + extra);
+            } catch (EnigmaException excp) {
+                String name = extra.trim().split(" ")[0];
+                assertEquals("duplicate rotor name: "
+                             + name.toUpperCase(Locale.ROOT) + " and " + name,
+                             excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void rotorsNotShared() {
+        Alphabet alpha = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(
+            "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ) "
+            + "(TV)", alpha)));
+        rotors.add(new MovingRotor("I", new Permutation(
+            "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)", alpha), "Q"));
+        rotors.add(new MovingRotor("II", new Permutation(
+            "(FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)", alpha),
+                                   "E"));
+        RotorCatalog catalog = new RotorCatalog(alpha, 3, 2, rotors);
+        Machine m1 = new Machine(catalog), m2 = new Machine(catalog);
+        m1.insertRotors(new String[] { "B", "I", "II" });
+        m2.insertRotors(new String[] { "B", "I", "II" });
+        String converted = m1.convert("HELLOWORLD");
+        assertEquals(converted, m2.convert("HELLOWORLD"));
+        assertEquals(0, rotors.get(1).setting());
+    }
+
+    @Test
+    public void useKeystream() {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        Machine plain = new Machine(catalog);
+        Main.setUp(plain, setting);
+        Keystream keystream = plain.keystream(40);
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOODMADEOF"
+            + "SLIDINGFOLDINGROSEWOODNEATLYPUTITALLTOGETHER";
+        String expected = plain.convert(msg);
+        Machine keyed = new Machine(catalog);
+        Main.setUp(keyed, setting);
+        assertTrue(keyed.useKeystream(keystream));
+        assertEquals(expected, keyed.convert(msg));
+        assertEquals(plain.snapshot(), keyed.snapshot());
+        for (String other : new String[] {
+                "* B Beta III IV I AXLF (HQ) (EX)",
+                "* B Beta III IV I AXLE (HQ)",
+                "* B Gamma III IV I AXLE (HQ) (EX)",
+                "* C Beta III IV I AXLE (HQ) (EX)" }) {
+            Machine m = new Machine(catalog);
+            Main.setUp(m, other);
+            assertTrue(other, !m.useKeystream(keystream));
+        }
+    }
+
+    @Test
+    public void namesIgnoreLocale() {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        Machine expected = new Machine(catalog);
+        expected.insertRotors(new String[] { "B", "BETA", "III", "IV", "I" });
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals(catalog.find("I"), catalog.find("i"));
+            assertEquals(catalog.find("III"), catalog.find("iii"));
+            Machine m = new Machine(catalog);
+            m.insertRotors(new String[] { "b", "beta", "iii", "iv", "i" });
+            assertEquals(expected.convert("HELLOWORLD"),
+                         m.convert("HELLOWORLD"));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+}
@@ -1,19 +1,37 @@
 package enigma;
 
-import java.util.NoSuchElementException;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Scanner;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import static enigma.EnigmaException.*;
 
 /** Enigma simulator.
  *  @author Curtis Wong
  */
-public final class Main {
+public final class Main implements AutoCloseable {
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
@@ -23,10 +41,72 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  Options, which start with "--", may appear anywhere in ARGS:
+     *    --invalid=reject  (the default) stop with an error at the first
+     *                      message line with a character not in the
+     *                      alphabet.
+     *    --invalid=skip    report such lines, with line and column, on
+     *                      the standard error and leave them out.
+     *    --prefetch=N      as each setting line is read, compute the
+     *                      machine's first N substitutions for it in the
+     *                      background, so that the message is converted
+     *                      by table lookup.  N is reduced if needed to
+     *                      keep the tables in flight within a fixed
+     *                      memory budget.  Default 0 (off).  Lines that
+     *                      do not start with "*", and so continue from
+     *                      where the last message left the machine, are
+     *                      not prefetched.
+     *    --stats           record the time taken to set up each setting,
+     *                      convert each message line, and write it, and
+     *                      print latency percentiles on the standard
+     *                      error when the JVM exits (including on
+     *                      SIGINT or SIGTERM).
+     *    --slow=MS         report on the standard error each message
+     *                      line that takes over MS milliseconds to
+     *                      convert, with its setting line and length.
+     *    --checkpoint=FILE record in FILE, every N input lines and at
+     *                      the end, the input and output positions and
+     *                      the machine's state (see Checkpoint).  Needs
+     *                      named input and output files.
+     *    --checkpoint-every=N
+     *                      set N (default 65536).
+     *    --resume          if the checkpoint file exists, continue from
+     *                      it: skip the input it covers, keep the output
+     *                      it covers, discard any output after that, and
+     *                      restore the machine.  It is an error if the
+     *                      configuration, or the input or output it
+     *                      covers, has changed since.
+     *    --container       write the output in the binary format of
+     *                      ContainerWriter rather than as text.  It can
+     *                      be exported as text, or decrypted, by
+     *                      Container.  Not with --checkpoint.
+     *
+     *  Alternatively, ARGS may be "--batch" followed by the name of a
+     *  manifest of jobs, each a configuration, input, and output file,
+     *  which are all run in this JVM (see Batch) with the same options.
+     *  The exit code is then 1 if any job failed. */
     public static void main(String... args) {
         try {
-            new Main(args).process();
+            ArrayList<String> options = new ArrayList<>();
+            ArrayList<String> files = new ArrayList<>();
+            for (String arg : args) {
+                (arg.startsWith("--") ? options : files).add(arg);
+            }
+            if (options.remove("--batch")) {
+                if (files.size() != 1) {
+                    throw error("--batch takes exactly one manifest file");
+                }
+                if (new Batch(files.get(0), options).run() == 0) {
+                    return;
+                }
+                System.exit(1);
+            }
+            try (Main main = new Main(files.toArray(new String[0]))) {
+                main.setOptions(options);
+                main.process();
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -40,34 +120,224 @@ public final class Main {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _config = readFile(args[0]);
+        _inputName = args.length > 1 ? args[1] : null;
+        _outputName = args.length > 2 ? args[2] : null;
+    }
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
-        } else {
-            _input = new Scanner(System.in);
+    /** A job that applies the machine described by CATALOG to the
+     *  messages in the file named INPUT, writing to the file named
+     *  OUTPUT. */
+    Main(RotorCatalog catalog, String input, String output) {
+        _catalog = catalog;
+        _inputName = input;
+        _outputName = output;
+    }
+
+    /** Apply OPTIONS, each of the form "--NAME=VALUE" (see main). */
+    void setOptions(Iterable<String> options) {
+        for (String option : options) {
+            switch (option) {
+            case "--invalid=reject":
+                _skipInvalid = false;
+                break;
+            case "--invalid=skip":
+                _skipInvalid = true;
+                break;
+            case "--stats":
+                _stats = true;
+                printStatsAtExit();
+                break;
+            case "--resume":
+                _resume = true;
+                break;
+            case "--container":
+                _containerMode = true;
+                break;
+            default:
+                if (option.startsWith("--prefetch=")) {
+                    _prefetchDepth = intOption(option);
+                } else if (option.startsWith("--slow=")) {
+                    _slowNanos = intOption(option) * 1_000_000L;
+                } else if (option.startsWith("--checkpoint=")) {
+                    _checkpointFile = Paths.get(
+                        option.substring(option.indexOf('=') + 1));
+                } else if (option.startsWith("--checkpoint-every=")) {
+                    _checkpointEvery = Math.max(1, intOption(option));
+                } else {
+                    throw error("unknown option: %s", option);
+                }
+            }
         }
+    }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+    /** Arrange, once per JVM, to print the latency histograms when the
+     *  JVM shuts down. */
+    private static void printStatsAtExit() {
+        if (STATS_HOOKED.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                SETUP_TIMES.print(System.err);
+                CONVERT_TIMES.print(System.err);
+                OUTPUT_TIMES.print(System.err);
+            }));
+        }
+    }
+
+    /** Return the non-negative value of OPTION, "--NAME=VALUE". */
+    private static int intOption(String option) {
+        try {
+            int value =
+                Integer.parseInt(option.substring(option.indexOf('=') + 1));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("bad value in option %s", option);
+    }
+
+    /** Open _input and _outChannel, first reading the checkpoint to
+     *  resume from, if asked to and there is one, and checking that it
+     *  was made with the same configuration. */
+    private void open() {
+        if (_checkpointFile == null && _resume) {
+            throw error("--resume needs --checkpoint=FILE");
+        }
+        if (_checkpointFile != null
+            && (_inputName == null || _outputName == null)) {
+            throw error("checkpoints need named input and output files");
+        }
+        if (_checkpointFile != null && _containerMode) {
+            throw error("--container cannot be used with --checkpoint");
+        }
+        if (_resume && Files.exists(_checkpointFile)) {
+            _resumeFrom = Checkpoint.load(_checkpointFile);
+            _outputStart = _resumeFrom.output();
+            if (_resumeFrom.config() != configText().hashCode()) {
+                throw error("checkpoint %s is for a different "
+                            + "configuration", _checkpointFile);
+            }
+        }
+        if (_inputName == null) {
+            _input = new LineReader(System.in, 0, IO_BUFFER_SIZE);
+        } else {
+            _input = getInput(_inputName,
+                              _resumeFrom == null ? 0 : _resumeFrom.input());
+        }
+        if (_outputName == null || _resumeFrom == null) {
+            _outChannel = openOutput(_outputName);
         } else {
-            _output = System.out;
+            _outChannel = getOutput(_outputName);
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return a reader of lines from the file named NAME, starting at
+     *  byte OFFSET.  When resuming, the bytes before OFFSET must be
+     *  those the checkpoint covers.  When checkpointing, the reader
+     *  keeps a checksum of all the bytes it has read. */
+    private LineReader getInput(String name, long offset) {
+        FileInputStream in = null;
         try {
-            return new Scanner(new File(name));
+            in = new FileInputStream(name);
+            CRC32 sum = new CRC32();
+            if (!checksum(in.getChannel(), offset, sum)
+                || (_resumeFrom != null
+                    && sum.getValue() != _resumeFrom.inputSum())) {
+                closeQuietly(in);
+                throw error("checkpoint %s is for a different input",
+                            _checkpointFile);
+            }
+            LineReader result = new LineReader(in, offset, IO_BUFFER_SIZE);
+            if (_checkpointFile != null) {
+                result.setChecksum(sum);
+            }
+            return result;
         } catch (IOException excp) {
+            closeQuietly(in);
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Add the next N bytes of IN to SUM, returning false if IN ends
+     *  first. */
+    private static boolean checksum(ReadableByteChannel in, long n,
+                                    Checksum sum) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(n,
+                                                            IO_BUFFER_SIZE));
+        while (n > 0) {
+            buf.clear().limit((int) Math.min(buf.capacity(), n));
+            int k = in.read(buf);
+            if (k < 0) {
+                return false;
+            }
+            sum.update(buf.array(), 0, k);
+            n -= k;
+        }
+        return true;
+    }
+
+    /** Return the text of my configuration. */
+    private String configText() {
+        return _catalog == null ? _config : _catalog.text();
+    }
+
+    /** Close STREAM, if it is not null, ignoring errors. */
+    private static void closeQuietly(Closeable stream) {
         try {
-            return new PrintStream(new File(name));
+            if (stream != null) {
+                stream.close();
+            }
+        } catch (IOException excp) {
+            /* Ignore: all output has already been flushed. */
+        }
+    }
+
+    /** Return a channel writing to the file named NAME from its start,
+     *  or to the standard output if NAME is null. */
+    static WritableByteChannel openOutput(String name) {
+        if (name == null) {
+            return new FileOutputStream(FileDescriptor.out).getChannel();
+        }
+        try {
+            return new FileOutputStream(name).getChannel();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the contents of the file named NAME. */
+    static String readFile(String name) {
+        try {
+            return new String(Files.readAllBytes(new File(name).toPath()));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel writing to the file named NAME, which is being
+     *  resumed, after its first _outputStart bytes, which must exist and
+     *  be those the checkpoint covers.  Their checksum is left in
+     *  _outputSum. */
+    private WritableByteChannel getOutput(String name) {
+        try {
+            FileChannel out =
+                FileChannel.open(Paths.get(name), StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE,
+                                 StandardOpenOption.CREATE);
+            if (out.size() < _outputStart) {
+                out.close();
+                throw error("%s is shorter than its checkpoint", name);
+            }
+            checksum(out, _outputStart, _outputSum);
+            if (_outputSum.getValue() != _resumeFrom.outputSum()) {
+                out.close();
+                throw error("checkpoint %s is for a different output",
+                            _checkpointFile);
+            }
+            out.truncate(_outputStart);
+            out.position(_outputStart);
+            return out;
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -75,132 +345,618 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+     *  results to _output.  Reading, encryption, and writing run as
+     *  three pipelined stages: a reader thread, this thread, and a
+     *  writer thread, linked by bounded rings that preserve the order
+     *  of lines (and so of settings and messages).  Checkpoints, when
+     *  enabled, pass through the rings between lines. */
+    void process() {
+        open();
         Machine machy = readConfig();
-        String forward = _input.nextLine();
-        while (_input.hasNext()) {
-            String setting = forward;
-            if (!setting.contains("*")) {
+        _output = new GroupWriter(_alphabet, _outChannel);
+        if (_checkpointFile != null) {
+            _output.setChecksum(_outputSum);
+        }
+        if (_containerMode) {
+            _container = new ContainerWriter(_catalog, _outChannel);
+        }
+        RingBuffer<Object> lines = new RingBuffer<>(PIPELINE_DEPTH);
+        RingBuffer<Object> results = new RingBuffer<>(PIPELINE_DEPTH);
+        startPrefetch();
+        Thread reader = new Thread(() -> readLines(lines), "enigma-reader");
+        Thread writer = new Thread(() -> writeLines(results), "enigma-writer");
+        reader.setDaemon(true);
+        reader.start();
+        writer.start();
+        try {
+            convertLines(machy, lines, results);
+        } finally {
+            lines.close();
+            results.close();
+            stopPrefetch();
+            try {
+                writer.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (_readError != null) {
+            throw error("could not read input: %s", _readError.getMessage());
+        }
+        if (_writeError instanceof EnigmaException) {
+            throw (EnigmaException) _writeError;
+        } else if (_writeError != null) {
+            throw error("could not write output: %s", _writeError);
+        }
+        if (_output.checkError()
+            || (_container != null && _container.checkError())) {
+            throw error("could not write output");
+        }
+        if (_checkpointError != null) {
+            throw error("could not checkpoint: %s", _checkpointError);
+        }
+    }
+
+    /** Reader stage: copy the lines of _input into LINES, closing it at
+     *  end of input or on error.  If checkpointing, follow every
+     *  _checkpointEvery'th line, and the last, with a new Checkpoint. */
+    private void readLines(RingBuffer<Object> lines) {
+        try {
+            int n = _resumeFrom == null ? 0 : _resumeFrom.lineNum();
+            String line;
+            while ((line = _input.readLine()) != null) {
+                n += 1;
+                if (_prefetch != null) {
+                    String setting =
+                        n == 1 ? line : line.toUpperCase(Locale.ROOT);
+                    if (setting.contains("*") && !prefetch(setting)) {
+                        break;
+                    }
+                }
+                if (!lines.put(line)
+                    || (_checkpointFile != null && n % _checkpointEvery == 0
+                        && !lines.put(checkpoint(n)))) {
+                    break;
+                }
+            }
+            if (line == null && _checkpointFile != null
+                && n % _checkpointEvery != 0) {
+                lines.put(checkpoint(n));
+            }
+        } catch (IOException excp) {
+            _readError = excp;
+        } finally {
+            lines.close();
+            if (_prefetch != null) {
+                _prefetch.close();
+            }
+        }
+    }
+
+    /** Reader stage: return a new Checkpoint after line N, the last line
+     *  read from _input. */
+    private Checkpoint checkpoint(int n) {
+        return new Checkpoint(_input.offset(), n, configText().hashCode(),
+                              _input.checksum());
+    }
+
+    /** Set up keystream prefetching, if requested. */
+    private void startPrefetch() {
+        if (_prefetchDepth == 0) {
+            return;
+        }
+        long each =
+            Keystream.bytes(1, _alphabet.size()) * PREFETCH_IN_FLIGHT;
+        _prefetchDepth = (int) Math.min(_prefetchDepth,
+                                        PREFETCH_MEMORY / each);
+        _prefetch = new RingBuffer<>(PREFETCH_AHEAD);
+        _prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "enigma-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+        _ahead = new Machine(_catalog);
+        if (_resumeFrom != null && _resumeFrom.active() != null) {
+            setUp(_ahead, _resumeFrom.active());
+            _ahead.setPlugboard(new Permutation(_resumeFrom.plugboard(),
+                                                _alphabet));
+        }
+        if (_resumeFrom != null && _resumeFrom.pending() != null) {
+            setUp(_ahead, _resumeFrom.pending());
+        }
+    }
+
+    /** Shut down keystream prefetching, if it was started. */
+    private void stopPrefetch() {
+        if (_prefetch != null) {
+            _prefetch.close();
+            _prefetcher.shutdownNow();
+        }
+    }
+
+    /** Apply SETTING to _ahead, as the encryption stage will apply it
+     *  to its machine, start computing the keystream from there in the
+     *  background, and queue it for that stage, which takes exactly one
+     *  entry per setting line.  If SETTING leaves the machine where the
+     *  last message took it, or is in error, queue NO_KEYSTREAM instead.
+     *  Returns false if the encryption stage has stopped. */
+    private boolean prefetch(String setting) {
+        Future<Keystream> keystream = NO_KEYSTREAM;
+        ArrayList<String> tokens = tokens(setting);
+        if (!tokens.isEmpty() && tokens.get(0).equals("*")) {
+            try {
+                setUp(_ahead, setting);
+                Machine M = _ahead.copy();
+                keystream = _prefetcher.submit(
+                    () -> new Keystream(M, _prefetchDepth));
+            } catch (EnigmaException excp) {
+                /* The encryption stage will report it. */
+            }
+        }
+        return _prefetch.put(keystream);
+    }
+
+    /** Set M up according to SETTING, then have it use the keystream in
+     *  PREFETCHED if that is ready and was computed for the same state.
+     *  PREFETCHED may be null. */
+    private void setUp(Machine M, String setting,
+                       Future<Keystream> prefetched) {
+        setUp(M, setting);
+        if (prefetched != null && prefetched.isDone()) {
+            try {
+                Keystream keystream = prefetched.get();
+                if (keystream != null) {
+                    M.useKeystream(keystream);
+                }
+            } catch (ExecutionException | InterruptedException
+                     | CancellationException excp) {
+                /* Speculation failed; convert the ordinary way. */
+            }
+        } else if (prefetched != null) {
+            prefetched.cancel(true);
+        }
+    }
+
+    /** Encryption stage: apply M to the settings and messages taken from
+     *  LINES, putting each converted message line on RESULTS.  As when
+     *  input was read token by token, whitespace-only lines at the end
+     *  of input are ignored, as is a final setting with no message
+     *  after it.  Each message line is checked against the alphabet
+     *  before conversion and handled as _skipInvalid directs.  When
+     *  resuming, the state starts as _resumeFrom recorded it.  Stops
+     *  early if the writer stage has failed and closed RESULTS. */
+    private void convertLines(Machine M, RingBuffer<Object> lines,
+                              RingBuffer<Object> results) {
+        boolean setUp = false;
+        boolean timing = _stats || _slowNanos > 0;
+        String setting = null, active = null;
+        Future<Keystream> prefetched = null;
+        int blanks = 0, lineNum = 0;
+        if (_resumeFrom != null) {
+            lineNum = _resumeFrom.lineNum();
+            blanks = _resumeFrom.blanks();
+            setting = _resumeFrom.pending();
+            active = _resumeFrom.active();
+            if (active != null) {
+                setUp(M, active);
+                M.setPlugboard(new Permutation(_resumeFrom.plugboard(),
+                                               _alphabet));
+                M.restore(_resumeFrom.snapshot());
+                setUp = true;
+            }
+        }
+        Object item;
+        while ((item = lines.take()) != null) {
+            if (item instanceof Checkpoint) {
+                ((Checkpoint) item).setState(
+                    active, setUp ? M.snapshot() : 0,
+                    setUp ? M.plugboard().cycles() : "", setting, blanks);
+                if (!results.put(item)) {
+                    return;
+                }
+                continue;
+            }
+            String line = (String) item;
+            lineNum += 1;
+            String forward =
+                lineNum == 1 ? line : line.toUpperCase(Locale.ROOT);
+            if (forward.isBlank()) {
+                blanks += 1;
+                continue;
+            }
+            if (setting != null) {
+                long start = timing ? System.nanoTime() : 0;
+                setUp(M, setting, prefetched);
+                if (_stats) {
+                    SETUP_TIMES.record(System.nanoTime() - start);
+                }
+                if (_container != null
+                    && (blanks > 0 || !forward.contains("*"))
+                    && !results.put(new SettingLine(setting, M))) {
+                    return;
+                }
+                active = setting;
+                setting = null;
+                setUp = true;
+            }
+            if (!setUp && (blanks > 0 || !forward.contains("*"))) {
                 throw new EnigmaException("Error! Setting is incorrect.");
             }
-            setUp(machy, setting);
-            forward = (_input.nextLine()).toUpperCase();
-            while (!(forward.contains("*"))) {
-                String output = machy.convert(forward.replaceAll(" ", ""));
-                if (forward.isEmpty()) {
-                    _output.println();
-                } else {
-                    printMessageLine(output);
+            for (; blanks > 0; blanks -= 1) {
+                if (!results.put("")) {
+                    return;
                 }
-                if (!_input.hasNext()) {
-                    forward = "*";
-                } else {
-                    forward = (_input.nextLine()).toUpperCase();
+            }
+            if (forward.contains("*")) {
+                setting = forward;
+                prefetched = _prefetch == null ? null : _prefetch.take();
+            } else if (checkMessage(forward, lineNum)) {
+                long start = timing ? System.nanoTime() : 0;
+                String converted = M.convert(forward.replace(" ", ""));
+                if (timing) {
+                    noteConversion(System.nanoTime() - start, lineNum,
+                                   active, converted.length());
+                }
+                if (!results.put(converted)) {
+                    return;
                 }
             }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Record that converting the message line at LINENUM, of LENGTH
+     *  characters under SETTING, took NANOS nanoseconds, and report it
+     *  if that is slow. */
+    private void noteConversion(long nanos, int lineNum, String setting,
+                                int length) {
+        if (_stats) {
+            CONVERT_TIMES.record(nanos);
+        }
+        if (_slowNanos > 0 && nanos > _slowNanos) {
+            System.err.printf("Slow message: line %d, %d characters, "
+                              + "%.3f ms, setting \"%s\"%n", lineNum,
+                              length, nanos / 1e6, setting);
+        }
+    }
+
+    /** Return true iff message line MSG, which is line LINENUM of the
+     *  input, is entirely in the alphabet.  Otherwise, either report it
+     *  and return false, if skipping invalid lines, or throw an error. */
+    private boolean checkMessage(String msg, int lineNum) {
+        int col = _alphabet.firstInvalid(msg);
+        if (col < 0) {
+            return true;
+        }
+        String report =
+            String.format("line %d, column %d: character '%c' not in "
+                          + "alphabet", lineNum, col + 1, msg.charAt(col));
+        if (!_skipInvalid) {
+            throw error("%s", report);
+        }
+        System.err.printf("Warning: skipped %s%n", report);
+        return false;
+    }
+
+    /** Writer stage: print each message line taken from RESULTS in
+     *  groups, or to _container, and save each checkpoint taken from it,
+     *  flushing the output at the end.  If anything fails, record it in
+     *  _writeError and close RESULTS, so that the encryption stage
+     *  stops rather than waiting for room in it. */
+    private void writeLines(RingBuffer<Object> results) {
         try {
-            Alphabet alpha = new Alphabet(_config.next());
-            int numRoters = _config.nextInt();
-            int numPauls = _config.nextInt();
-            Collection<Rotor> rotors = new ArrayList<Rotor>();
-            _alphabet = alpha;
-            while (_config.hasNext()) {
-                rotors.add(readRotor());
+            writeItems(results);
+        } catch (Throwable excp) {
+            _writeError = excp;
+            results.close();
+        }
+    }
+
+    /** Do the work of writeLines(RESULTS). */
+    private void writeItems(RingBuffer<Object> results) {
+        Machine written = null;
+        Object item;
+        while ((item = results.take()) != null) {
+            if (item instanceof Checkpoint) {
+                saveCheckpoint((Checkpoint) item);
+                continue;
+            } else if (item instanceof SettingLine) {
+                SettingLine setting = (SettingLine) item;
+                if (written == null) {
+                    written = new Machine(_catalog);
+                }
+                written.setState(setting._slots, setting._reflector,
+                                 setting._snapshot, setting._plugboard);
+                _container.setting(setting._text, written);
+                continue;
             }
-            return new Machine(alpha, numRoters, numPauls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+            String msg = (String) item;
+            if (_stats) {
+                long start = System.nanoTime();
+                printMessageLine(msg);
+                OUTPUT_TIMES.record(System.nanoTime() - start);
+            } else {
+                printMessageLine(msg);
+            }
+        }
+        if (_container != null) {
+            _container.finish();
+        } else {
+            _output.flush();
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Writer stage: once all output before CHECKPOINT has been written,
+     *  record where it ends and save CHECKPOINT.  After a failure, no more
+     *  checkpoints are saved, so that the last one saved stays valid. */
+    private void saveCheckpoint(Checkpoint checkpoint) {
+        _output.flush();
+        if (_checkpointError != null || _output.checkError()) {
+            return;
+        }
         try {
-            String rotorname = _config.next();
-            String rotortype = _config.next();
-            String notches;
-            String rotorcycle = "";
-            ArrayList<Integer> L = new ArrayList<Integer>();
-            while (_config.hasNext("\\s*[(].+[)]\\s*")) {
-                rotorcycle += " " + _config.next();
-            }
-            Permutation n = new Permutation(rotorcycle, _alphabet);
-            if (rotortype.startsWith("M")) {
-                notches = rotortype.substring(1);
-                return new MovingRotor(rotorname, n, notches);
-            } else if (rotortype.startsWith("N")) {
-                return new FixedRotor(rotorname, n);
-            } else if (rotortype.startsWith("R")) {
-                return new Reflector(rotorname, n);
-            } else {
-                throw new EnigmaException("Invalid rotor type");
+            if (_outChannel instanceof FileChannel) {
+                ((FileChannel) _outChannel).force(false);
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+            checkpoint.setOutput(_outputStart + _output.written(),
+                                 _output.checksum());
+            checkpoint.save(_checkpointFile);
+        } catch (IOException | EnigmaException excp) {
+            _checkpointError = excp.getMessage();
+        }
+    }
+
+    /** Close my input and output, whichever were opened. */
+    @Override
+    public void close() {
+        closeQuietly(_input);
+        if (_output != null) {
+            _output.close();
+        } else {
+            closeQuietly(_outChannel);
+        }
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config.  Only the rotor index is built here; permutations
+     *  are compiled as the machine first selects each rotor. */
+    private Machine readConfig() {
+        if (_catalog == null) {
+            _catalog = new RotorCatalog(_config);
         }
+        _alphabet = _catalog.alphabet();
+        return new Machine(_catalog);
     }
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        Scanner s = new Scanner(settings);
-        String[] name = new String[M.numRotors()];
-        String spec = "";
+    static void setUp(Machine M, String settings) {
+        ArrayList<String> tokens = tokens(settings);
+        int n = M.numRotors();
+        if (tokens.isEmpty() || !tokens.get(0).equals("*")) {
+            return;
+        }
+        if (tokens.size() <= n) {
+            throw error("setting names too few rotors: %s", settings);
+        }
+        M.insertRotors(tokens.subList(1, n + 1).toArray(new String[0]));
+        int k = n + 1;
+        if (k < tokens.size()
+            && isWord(tokens.get(k), n - 1,
+                      M.settableReflector() ? n : n - 1)) {
+            M.setRotors(tokens.get(k));
+            k += 1;
+        }
+        StringBuilder spec = new StringBuilder();
+        for (; k < tokens.size() && isCycle(tokens.get(k)); k += 1) {
+            spec.append(tokens.get(k)).append(' ');
+        }
+        if (spec.length() > 0) {
+            M.setPlugboard(new Permutation(spec.toString(), M.alphabet()));
+        }
+    }
 
-        if (s.hasNext("[*]")) {
-            s.next();
-            for (int i = 0; i < M.numRotors(); i += 1) {
-                name[i] = s.next();
+    /** Return the whitespace-separated tokens of LINE. */
+    private static ArrayList<String> tokens(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        int i = 0, n = line.length();
+        while (true) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) {
+                i += 1;
             }
-            M.insertRotors(name);
-            if (s.hasNext("\\w{" + (M.numRotors() - 1) + "}")) {
-                M.setRotors(s.next());
+            if (i == n) {
+                return result;
             }
-            while (s.hasNext("[(]\\w+[)]")) {
-                spec += s.next() + " ";
+            int start = i;
+            while (i < n && !Character.isWhitespace(line.charAt(i))) {
+                i += 1;
             }
-            if (spec.length() > 0) {
-                M.setPlugboard(new Permutation(spec, _alphabet));
+            result.add(line.substring(start, i));
+        }
+    }
+
+    /** Return true iff TOKEN is a plugboard cycle: word characters (see
+     *  isWord) in parentheses. */
+    private static boolean isCycle(String token) {
+        int n = token.length();
+        return n > 2 && token.charAt(0) == '(' && token.charAt(n - 1) == ')'
+            && isWord(token.substring(1, n - 1), 1, n);
+    }
+
+    /** Return true iff TOKEN consists of between MIN and MAX ASCII
+     *  letters, digits, and underscores (the characters a regular
+     *  expression's \w matches). */
+    private static boolean isWord(String token, int min, int max) {
+        if (token.length() < min || token.length() > max) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i += 1) {
+            char c = token.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                  || c >= '0' && c <= '9' || c == '_')) {
+                return false;
             }
         }
+        return true;
     }
 
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
-        String message = msg;
-        if (message.length() == 0) {
-            _output.println();
+        if (_container != null) {
+            _container.writeLine(msg);
         } else {
-            while (message.length() > 0) {
-                if (message.length() <= 5) {
-                    _output.println(message);
-                    message = "";
-                } else {
-                    _output.print(message.substring(0, 5));
-                    _output.print(" ");
-                    message = message.substring(5);
-                }
-            }
+            _output.writeLine(msg);
         }
     }
 
+    /** A setting line, passed from the encryption stage to the writer
+     *  stage together with the state of the machine it left, which may
+     *  include rotors, settings, or a plugboard inherited from earlier
+     *  lines. */
+    private static final class SettingLine {
+
+        /** The setting line TEXT, just applied to M. */
+        SettingLine(String text, Machine M) {
+            _text = text;
+            _slots = M.slots();
+            _reflector = M.reflectorSetting();
+            _snapshot = M.snapshot();
+            _plugboard = M.plugboard();
+        }
+
+        /** Text of the setting line. */
+        private final String _text;
+
+        /** Catalog indices of the rotors in effect under it. */
+        private final int[] _slots;
+
+        /** Reflector setting in effect under it. */
+        private final int _reflector;
+
+        /** Rotor settings at its start. */
+        private final long _snapshot;
+
+        /** Plugboard in effect under it. */
+        private final Permutation _plugboard;
+    }
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Names of the input and output files; null for the standard
+     *  input and output. */
+    private String _inputName, _outputName;
+
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
+
+    /** True iff message lines not in the alphabet are skipped rather
+     *  than rejected. */
+    private boolean _skipInvalid;
+
+    /** True iff latencies are being recorded. */
+    private boolean _stats;
+
+    /** Conversions taking longer than this many nanoseconds are
+     *  reported; 0 if none are. */
+    private long _slowNanos;
+
+    /** Number of keystrokes to prefetch per setting; 0 if off. */
+    private int _prefetchDepth;
+
+    /** Keystreams being computed, one per setting line read. */
+    private RingBuffer<Future<Keystream>> _prefetch;
+
+    /** Runs keystream computations. */
+    private ExecutorService _prefetcher;
+
+    /** Machine to which the reader stage applies setting lines, for
+     *  prefetching. */
+    private Machine _ahead;
+
+    /** Checkpoint file, or null if not checkpointing. */
+    private Path _checkpointFile;
+
+    /** Number of input lines between checkpoints. */
+    private int _checkpointEvery = CHECKPOINT_EVERY;
+
+    /** True iff asked to resume from _checkpointFile. */
+    private boolean _resume;
+
+    /** Checkpoint being resumed from, or null. */
+    private Checkpoint _resumeFrom;
+
+    /** Output offset at which this run started writing. */
+    private long _outputStart;
+
+    /** Checksum of the output, when checkpointing. */
+    private final CRC32 _outputSum = new CRC32();
+
+    /** Why saving a checkpoint failed, or null if none has. */
+    private volatile String _checkpointError;
+
+    /** Failure of the reader stage, if any. */
+    private volatile IOException _readError;
+
+    /** Failure of the writer stage, if any. */
+    private volatile Throwable _writeError;
+
+    /** Text of the machine configuration. */
+    private String _config;
+
+    /** Rotor index built from _config, or shared between batch jobs. */
+    private RotorCatalog _catalog;
+
+    /** Channel for encoded/decoded messages. */
+    private WritableByteChannel _outChannel;
+
+    /** Formats messages onto _outChannel, once the alphabet is known. */
+    private GroupWriter _output;
+
+    /** True iff output is to be written as a container. */
+    private boolean _containerMode;
+
+    /** Writes messages onto _outChannel in container format, or null if
+     *  writing text. */
+    private ContainerWriter _container;
+
+    /** Size of input and output buffers, in bytes or characters. */
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    /** Default number of input lines between checkpoints. */
+    private static final int CHECKPOINT_EVERY = 1 << 16;
+
+    /** Capacity, in lines, of each ring between pipeline stages. */
+    private static final int PIPELINE_DEPTH = 1024;
+
+    /** Times taken to apply setting lines. */
+    private static final LatencyHistogram SETUP_TIMES =
+        new LatencyHistogram("setup");
+
+    /** Times taken to convert message lines. */
+    private static final LatencyHistogram CONVERT_TIMES =
+        new LatencyHistogram("convert");
+
+    /** Times taken to format and buffer message lines. */
+    private static final LatencyHistogram OUTPUT_TIMES =
+        new LatencyHistogram("output");
+
+    /** True once the latency report has been scheduled. */
+    private static final AtomicBoolean STATS_HOOKED = new AtomicBoolean();
+
+    /** Largest number of keystreams queued ahead of use. */
+    private static final int PREFETCH_AHEAD = 4;
+
+    /** Largest number of keystreams that exist at once: those queued,
+     *  one submitted by the reader while it waits for room in the
+     *  queue, one taken by the encryption stage for a setting line not
+     *  yet applied, and the one the machine is using. */
+    private static final int PREFETCH_IN_FLIGHT = PREFETCH_AHEAD + 3;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Queued in place of a keystream that is not prefetched. */
+    private static final Future<Keystream> NO_KEYSTREAM =
+        CompletableFuture.completedFuture(null);
 
-    /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    /** Memory budget, in bytes, for prefetched keystreams. */
+    private static final long PREFETCH_MEMORY = 64L << 20;
 }
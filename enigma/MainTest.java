@@ -0,0 +1,228 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** The suite of all JUnit tests for the Main class, run on whole input
+ *  files.
+ *  @author Curtis Wong
+ */
+public class MainTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 4 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n";
+
+    /** Return a new temporary file containing TEXT. */
+    static File tempFile(String text) throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes());
+        return file;
+    }
+
+    /** Return the output of Main for CONFIG on INPUT, with OPTIONS. */
+    static String run(String input, String... options) throws IOException {
+        return run(tempFile(input), tempFile(""), options);
+    }
+
+    /** Run Main for CONFIG from file IN to file OUT with OPTIONS, and
+     *  return the contents of OUT. */
+    static String run(File in, File out, String... options)
+        throws IOException {
+        Main main = new Main(new RotorCatalog(CONFIG), in.getPath(),
+                             out.getPath());
+        try {
+            main.setOptions(Arrays.asList(options));
+            main.process();
+        } finally {
+            main.close();
+        }
+        return new String(Files.readAllBytes(out.toPath()));
+    }
+
+    /** Return the output of Main for CONFIG on a setting line SETTING
+     *  followed by message lines MSGS, computed directly on a Machine. */
+    static String expected(String setting, String... msgs) {
+        Machine machine = new Machine(new RotorCatalog(CONFIG));
+        Main.setUp(machine, setting);
+        StringBuilder result = new StringBuilder();
+        for (String msg : msgs) {
+            String converted = machine.convert(msg.replace(" ", ""));
+            for (int i = 0; i < converted.length(); i += 5) {
+                result.append(i == 0 ? "" : " ").append(
+                    converted, i, Math.min(i + 5, converted.length()));
+            }
+            result.append("\n");
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void rejectInvalid() throws IOException {
+        String input = "* B I II III AAA\nHELLO\nWORLD 100%\nAGAIN\n";
+        for (String[] options : new String[][] {
+                {}, { "--invalid=reject" } }) {
+            try {
+                run(input, options);
+                fail("accepted invalid message line");
+            } catch (EnigmaException excp) {
+                assertEquals("line 3, column 7: character '1' not in "
+                             + "alphabet", excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void skipInvalid() throws IOException {
+        String input = "* B I II III AAA\nHELLO\nWORLD 100%\nagain\n";
+        assertEquals(expected("* B I II III AAA", "HELLO", "AGAIN"),
+                     run(input, "--invalid=skip"));
+        assertEquals(expected("* B I II III AAA", "HELLO", "AGAIN"),
+                     run(input, "--invalid=skip", "--prefetch=100"));
+    }
+
+    @Test
+    public void blankLines() throws IOException {
+        String setting = "* B I II III AAA";
+        assertEquals(expected(setting, "HELLO", "", "WORLD", ""),
+                     run(setting + "\nHELLO\n\nWORLD\n \n" + setting
+                         + "\n\n"));
+        assertEquals(expected(setting, "HELLO"),
+                     run(setting + "\nHELLO\n\n  \n"));
+        assertEquals(expected(setting, "", "HELLO"),
+                     run(setting + "\n\nHELLO"));
+    }
+
+    @Test
+    public void resumeWithInheritedPlugboard() throws IOException {
+        String[] lines = {
+            "* B I II III QEV (AB) (CD)", "HELLO WORLD", "",
+            "* B III II I AAA", "", "MESSAGE ONE", "MESSAGE TWO",
+            "* B II I III ZZZ", "LAST", ""
+        };
+        String input = String.join("\n", lines);
+        String whole = run(input);
+        File in = tempFile(""), out = tempFile(""), ckpt = tempFile("");
+        for (int k = 1; k < lines.length; k += 1) {
+            ckpt.delete();
+            String prefix =
+                String.join("\n", Arrays.copyOf(lines, k)) + "\n";
+            Files.write(in.toPath(), prefix.getBytes());
+            run(in, out, "--checkpoint=" + ckpt, "--checkpoint-every=1");
+            Files.write(in.toPath(), input.getBytes());
+            assertEquals("interrupted after line " + k, whole,
+                         run(in, out, "--checkpoint=" + ckpt, "--resume"));
+        }
+    }
+
+    @Test
+    public void resumeChecksFiles() throws IOException {
+        String input = "* B I II III AAA\nHELLO\nWORLD\n";
+        File in = tempFile(input), out = tempFile(""), ckpt = tempFile("");
+        ckpt.delete();
+        String checkpoint = "--checkpoint=" + ckpt;
+        run(in, out, checkpoint, "--checkpoint-every=2");
+        Files.write(in.toPath(), (input + "AGAIN\n").getBytes());
+        assertEquals(run(input + "AGAIN\n"),
+                     run(in, out, checkpoint, "--resume"));
+        Files.write(in.toPath(), input.replace("HELLO", "THERE").getBytes());
+        try {
+            run(in, out, checkpoint, "--resume");
+            fail("resumed with a different input");
+        } catch (EnigmaException excp) {
+            assertEquals("checkpoint " + ckpt + " is for a different input",
+                         excp.getMessage());
+        }
+        Files.write(in.toPath(), (input + "AGAIN\n").getBytes());
+        Files.write(out.toPath(), new String(Files.readAllBytes(
+            out.toPath())).toLowerCase().getBytes());
+        try {
+            run(in, out, checkpoint, "--resume");
+            fail("resumed with a different output");
+        } catch (EnigmaException excp) {
+            assertEquals("checkpoint " + ckpt + " is for a different "
+                         + "output", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void slowMessages() throws IOException {
+        char[] msg = new char[1 << 20];
+        Arrays.fill(msg, 'A');
+        PrintStream err = System.err;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            System.setErr(new PrintStream(bytes, true));
+            run("* B I II III AAA\n" + new String(msg) + "\n", "--slow=1");
+        } finally {
+            System.setErr(err);
+        }
+        String report = bytes.toString();
+        assertTrue(report, report.startsWith(
+            "Slow message: line 2, 1048576 characters, "));
+        assertTrue(report, report.endsWith(
+            " ms, setting \"* B I II III AAA\"" + System.lineSeparator()));
+    }
+
+    @Test
+    public void prefetchMatches() throws IOException {
+        String input = "* B I II III AAA (AB) (CD)\nHELLO WORLD\n"
+            + "* B III II I QEV\nMESSAGE ONE\n\n X * Y\nCONTINUED\n"
+            + "* B II I III ZZZ (EF)\n* B I III II BCD\nLAST\n";
+        String expected = run(input);
+        for (int depth : new int[] { 1, 5, 1000 }) {
+            assertEquals("depth " + depth, expected,
+                         run(input, "--prefetch=" + depth));
+        }
+    }
+
+    @Test
+    public void lowerCaseUnderTurkishLocale() throws IOException {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals(expected("* B I II III AAA", "HELLO")
+                         + expected("* B III II I AAA", "HI"),
+                         run("* B I II III AAA\nhello\n* b iii ii i aaa\n"
+                             + "hi\n"));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @Test
+    public void percentInMessage() throws IOException {
+        try {
+            run("* B I II III AAA\n%n%s%d\n");
+            fail("accepted invalid message line");
+        } catch (EnigmaException excp) {
+            assertEquals("line 2, column 1: character '%' not in "
+                         + "alphabet", excp.getMessage());
+        }
+    }
+
+}
@@ -33,10 +33,22 @@ class MovingRotor extends Rotor {
         return false;
     }
 
+    @Override
+    String notches() {
+        return _notches;
+    }
+
     @Override
     void advance() {
         set(setting() + 1);
     }
+
+    @Override
+    Rotor copy() {
+        MovingRotor result = new MovingRotor(name(), permutation(), _notches);
+        result.set(setting());
+        return result;
+    }
     /** Notches representing string of rotor. */
     private String _notches;
 
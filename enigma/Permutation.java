@@ -1,4 +1,7 @@
 package enigma;
+
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -14,12 +17,74 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles;
+        _forward = new int[alphabet.size()];
+        _backward = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i += 1) {
+            _forward[i] = _backward[i] = i;
+        }
+        int open = -1;
+        for (int i = 0; i < cycles.length(); i += 1) {
+            char c = cycles.charAt(i);
+            if (c == '(') {
+                if (open >= 0) {
+                    throw error("nested cycle in %s", cycles);
+                }
+                open = i + 1;
+            } else if (c == ')') {
+                if (open < 0) {
+                    throw error("unbalanced cycle in %s", cycles);
+                }
+                addCycle(cycles.substring(open, i));
+                open = -1;
+            } else if (open < 0 && !Character.isWhitespace(c)) {
+                throw error("character '%c' outside of a cycle", c);
+            }
+        }
+        if (open >= 0) {
+            throw error("unbalanced cycle in %s", cycles);
+        }
+    }
+
+    /** The permutation of ALPHABET mapping each K to FORWARD[K], which
+     *  must be a permutation of 0 .. ALPHABET.size() - 1.  FORWARD is
+     *  not copied. */
+    private Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _backward = new int[forward.length];
+        for (int k = 0; k < forward.length; k += 1) {
+            _backward[forward[k]] = k;
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
      *  c0c1...cm. */
     private void addCycle(String cycle) {
+        int first = -1, prev = -1;
+        for (int i = 0; i < cycle.length(); i += 1) {
+            char c = cycle.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int k = _alphabet.toInt(c);
+            if (k < 0) {
+                throw error("character '%c' not in alphabet", c);
+            }
+            if (_forward[k] != k || _backward[k] != k || k == first) {
+                throw error("character '%c' appears twice in cycles", c);
+            }
+            if (first < 0) {
+                first = k;
+            } else {
+                _forward[prev] = k;
+                _backward[k] = prev;
+            }
+            prev = k;
+        }
+        if (first >= 0) {
+            _forward[prev] = first;
+            _backward[first] = prev;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -33,69 +98,19 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char newmap = _alphabet.toChar(wrap(p));
-        char initial = _alphabet.toChar(p);
-        String[] arr = _cycles.split("\\)|\\(|\\ ",
-                _cycles.length() * 2);
-        for (String cycle: arr) {
-            for (int i = 0; i < cycle.length(); i += 1) {
-                if (_alphabet.toInt(newmap) + 1 > _alphabet.size()
-                        && cycle.charAt(i) == newmap) {
-                    newmap = cycle.charAt(0);
-                } else if (cycle.charAt(i) == newmap
-                        && cycle.length() > 1 && cycle.length() - 1 != i) {
-                    newmap = cycle.charAt(i + 1);
-                    break;
-                } else if (cycle.charAt(i) == newmap
-                        && cycle.length() > 1 && i != 0) {
-                    newmap = cycle.charAt(0);
-                    break;
-                } else if (cycle.charAt(i) == initial
-                        && i + 1 > cycle.length() - 1) {
-                    newmap = cycle.charAt(0);
-                }
-            }
-        }
-        return _alphabet.toInt(newmap);
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char newmap = _alphabet.toChar(wrap(c));
-        char initial = _alphabet.toChar(c);
-        String[] arr = _cycles.split("\\)|\\(|\\ ",
-                _cycles.length() * 2);
-        for (String cycle: arr) {
-            for (int i = 0; i < cycle.length(); i += 1) {
-                if (cycle.length() == 1) {
-                    return _alphabet.toInt(newmap);
-                } else {
-                    if (_alphabet.toInt(newmap) + 1 > _alphabet.size()
-                            && cycle.charAt(i) == newmap) {
-                        newmap = cycle.charAt(i - 1);
-                    } else if (cycle.charAt(i) == newmap
-                            && cycle.length() > 1 && i != 0) {
-                        newmap = cycle.charAt(i - 1);
-                        break;
-                    } else if (cycle.charAt(i) == newmap
-                            && cycle.length() > 1 && i == 0) {
-                        newmap = cycle.charAt(cycle.length() - 1);
-                        break;
-                    } else if (cycle.charAt(i) == initial
-                            && i + 1 > cycle.length() - 1) {
-                        newmap = cycle.charAt(i - 1);
-                    }
-                }
-            }
-        }
-        return _alphabet.toInt(newmap);
+        return _backward[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -129,8 +144,124 @@ class Permutation {
         return true;
     }
 
+    /** Return the permutation that applies me and then OTHER, which
+     *  must have the same size.  That is, the result maps P to
+     *  OTHER.permute(permute(P)). */
+    Permutation compose(Permutation other) {
+        if (other.size() != size()) {
+            throw error("composing permutations of different sizes");
+        }
+        int[] result = new int[size()];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = other._forward[_forward[k]];
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return new Permutation(_backward.clone(), _alphabet);
+    }
+
+    /** Return my conjugate by a rotation of SHIFT positions: the
+     *  permutation mapping P to permute(P + SHIFT) - SHIFT (modulo
+     *  size()).  This is the mapping of a rotor with my wiring at
+     *  setting SHIFT. */
+    Permutation conjugate(int shift) {
+        int n = size();
+        int s = wrap(shift);
+        int[] result = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            int r = _forward[(k + s) % n] - s;
+            result[k] = r < 0 ? r + n : r;
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /** Return me applied K times (my inverse applied -K times if K is
+     *  negative).  Takes time proportional to size(), whatever K. */
+    Permutation power(int k) {
+        int n = size();
+        int[] result = new int[n];
+        int[] cycle = new int[n];
+        boolean[] seen = new boolean[n];
+        for (int start = 0; start < n; start += 1) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int p = start; !seen[p]; p = _forward[p]) {
+                seen[p] = true;
+                cycle[len] = p;
+                len += 1;
+            }
+            int step = Math.floorMod(k, len);
+            for (int i = 0; i < len; i += 1) {
+                result[cycle[i]] = cycle[(i + step) % len];
+            }
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /** Return the lengths of my cycles (including fixed points, as
+     *  cycles of length 1) in ascending order.  Conjugate permutations
+     *  have equal cycle types, which makes this a fingerprint that is
+     *  unchanged by relabeling, e.g. by a plugboard. */
+    int[] cycleType() {
+        int n = size();
+        int[] lengths = new int[n];
+        int count = 0;
+        boolean[] seen = new boolean[n];
+        for (int start = 0; start < n; start += 1) {
+            int len = 0;
+            for (int p = start; !seen[p]; p = _forward[p]) {
+                seen[p] = true;
+                len += 1;
+            }
+            if (len > 0) {
+                lengths[count] = len;
+                count += 1;
+            }
+        }
+        int[] result = Arrays.copyOf(lengths, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return me in the cycle notation the constructor accepts, leaving
+     *  out fixed points. */
+    String cycles() {
+        StringBuilder result = new StringBuilder();
+        boolean[] seen = new boolean[size()];
+        for (int start = 0; start < size(); start += 1) {
+            if (seen[start] || _forward[start] == start) {
+                continue;
+            }
+            result.append(result.length() > 0 ? " (" : "(");
+            for (int p = start; !seen[p]; p = _forward[p]) {
+                seen[p] = true;
+                result.append(_alphabet.toChar(p));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Permutation
+            && Arrays.equals(_forward, ((Permutation) obj)._forward);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_forward);
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
-    /** Cycles represented as string of permutation. */
-    private String _cycles;
+    /** _forward[k] is the image of K under this permutation. */
+    private final int[] _forward;
+    /** _backward[k] is the image of K under the inverse permutation. */
+    private final int[] _backward;
 }
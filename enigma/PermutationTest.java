@@ -5,6 +5,8 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import static enigma.TestUtils.*;
 
 /** The suite of all JUnit tests for the Permutation class.
@@ -99,4 +101,59 @@ public class PermutationTest {
         assertEquals(23, perm4.invert(24));
     }
 
+    @Test
+    public void testCompose() {
+        Permutation p = new Permutation("(ABC)", UPPER);
+        Permutation q = new Permutation("(AB)", UPPER);
+        perm = p.compose(q);
+        assertEquals(0, perm.permute(0));
+        assertEquals(2, perm.permute(1));
+        assertEquals(1, perm.permute(2));
+        assertEquals(3, perm.permute(3));
+    }
+
+    @Test
+    public void testInverse() {
+        String cycles = "(AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)";
+        Permutation p = new Permutation(cycles, UPPER);
+        perm = p.compose(p.inverse());
+        checkPerm("p then inverse", UPPER_STRING, UPPER_STRING);
+        perm = p.inverse();
+        assertEquals(16, perm.permute(0));
+        assertEquals(0, perm.invert(16));
+    }
+
+    @Test
+    public void testConjugate() {
+        perm = new Permutation(NAVALA.get("I"), UPPER).conjugate(1);
+        checkPerm("I conjugated by 1", UPPER_STRING, NAVALB_MAP.get("I"));
+        perm = new Permutation(NAVALA.get("I"), UPPER).conjugate(-1);
+        checkPerm("I conjugated by -1", UPPER_STRING, NAVALZ_MAP.get("I"));
+    }
+
+    @Test
+    public void testPower() {
+        Permutation p = new Permutation("(ABCD) (EF)", UPPER);
+        perm = p.power(4);
+        checkPerm("(ABCD) (EF) ^ 4", UPPER_STRING, UPPER_STRING);
+        perm = p.power(-1);
+        assertEquals(3, perm.permute(0));
+        assertEquals(5, perm.permute(4));
+        perm = p.power(2);
+        assertEquals(2, perm.permute(0));
+        assertEquals(4, perm.permute(4));
+    }
+
+    @Test
+    public void testCycleType() {
+        Permutation p = new Permutation("(ABCD) (EF) (GHI)", UPPER);
+        int[] expected = new int[20];
+        Arrays.fill(expected, 1);
+        expected[17] = 2;
+        expected[18] = 3;
+        expected[19] = 4;
+        assertArrayEquals(expected, p.cycleType());
+        assertArrayEquals(p.cycleType(), p.conjugate(7).cycleType());
+    }
+
 }
@@ -10,16 +10,48 @@ class Reflector extends FixedRotor {
     /** A non-moving rotor named NAME whose permutation at the 0 setting
      * is PERM. */
     Reflector(String name, Permutation perm) {
+        this(name, perm, false);
+    }
+
+    /** A reflector named NAME whose permutation at the 0 setting is
+     *  PERM, which can be set to any position iff SETTABLE (like the
+     *  Umkehrwalze of the later machines) and otherwise only to 0. */
+    Reflector(String name, Permutation perm, boolean settable) {
         super(name, perm);
+        _settable = settable;
     }
+
     @Override
     boolean reflecting() {
         return true;
     }
 
+    /** Return true iff I may be set to positions other than 0. */
+    boolean settable() {
+        return _settable;
+    }
+
     @Override
     void set(int posn) {
-        throw error("reflector has only one position");
+        if (!_settable && posn != 0) {
+            throw error("reflector has only one position");
+        }
+        super.set(posn);
+    }
+
+    @Override
+    void set(char cposn) {
+        set(alphabet().toInt(cposn));
+    }
+
+    @Override
+    Rotor copy() {
+        Reflector result = new Reflector(name(), permutation(), _settable);
+        result.set(setting());
+        return result;
     }
 
+    /** True iff I may be set to positions other than 0. */
+    private final boolean _settable;
+
 }
@@ -0,0 +1,98 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded, lock-free queue connecting exactly one producer thread to
+ *  exactly one consumer thread.  The producer signals the end of its
+ *  stream with close(); the consumer may also close() to abandon the
+ *  stream, after which put() fails rather than blocking forever.
+ *  @author Curtis Wong
+ */
+class RingBuffer<T> {
+
+    /** A ring holding at least CAPACITY items. */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        _items = new Object[size];
+        _mask = size - 1;
+    }
+
+    /** Append ITEM, waiting while I am full.  Returns false (dropping
+     *  ITEM) if I have been closed. */
+    boolean put(T item) {
+        long tail = _tail.get();
+        int spins = 0;
+        while (tail - _head.get() == _items.length) {
+            if (_closed) {
+                return false;
+            }
+            spins = pause(spins);
+        }
+        if (_closed) {
+            return false;
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Remove and return my oldest item, waiting while I am empty.
+     *  Returns null once I am closed and all items have been taken. */
+    @SuppressWarnings("unchecked")
+    T take() {
+        long head = _head.get();
+        int spins = 0;
+        while (head == _tail.get()) {
+            if (_closed && head == _tail.get()) {
+                return null;
+            }
+            spins = pause(spins);
+        }
+        int k = (int) head & _mask;
+        T item = (T) _items[k];
+        _items[k] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Mark the end of the stream.  Items already put remain available
+     *  to take(). */
+    void close() {
+        _closed = true;
+    }
+
+    /** Wait briefly, having already waited SPINS times, and return the
+     *  new count.  Spins first, then yields to a parked sleep so that
+     *  an idle stage does not hold a core. */
+    private static int pause(int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return spins + 1;
+    }
+
+    /** Number of busy-wait iterations before parking. */
+    private static final int SPIN_LIMIT = 1000;
+
+    /** Length of each parked wait, in nanoseconds. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** Slots of the ring; the size is a power of two. */
+    private final Object[] _items;
+
+    /** Mask reducing a sequence number to a slot index. */
+    private final int _mask;
+
+    /** Sequence number of the next item to take. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Sequence number of the next item to put. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** True once either end has closed me. */
+    private volatile boolean _closed;
+
+}
@@ -83,10 +83,23 @@ class Rotor {
         return false;
     }
 
+    /** Return the characters of the settings at which I am at a notch.
+     *  By default, I have none. */
+    String notches() {
+        return "";
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
 
+    /** Return a new rotor with my name, wiring, and setting. */
+    Rotor copy() {
+        Rotor result = new Rotor(_name, _permutation);
+        result._setting = _setting;
+        return result;
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
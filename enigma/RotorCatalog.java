@@ -0,0 +1,345 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+
+import static enigma.EnigmaException.*;
+
+/** The collection of rotors described by a configuration file.  The
+ *  pawl count may be followed by machine options of the form KEY=VALUE,
+ *  which select a variant machine:
+ *    stepping=lever|cog        how the moving rotors are driven (see
+ *                              Stepping); lever by default
+ *    reflector=fixed|settable  whether the reflector can be set to any
+ *                              position, as the settable reflectors of
+ *                              the later machines could; fixed by
+ *                              default
+ *  A non-involutory (Uhr-style) plugboard needs no option: setting lines
+ *  may already give the plugboard as any permutation.  A rewirable
+ *  reflector (UKW-D) is not modeled; each wiring must be listed as a
+ *  reflector of its own.  Nor are extra rotors other than the fixed
+ *  ones between the reflector and the moving rotors.  Reading
+ *  a catalog makes a single pass over the configuration that records
+ *  each rotor's name, type, notches, and the offsets of its cycles in
+ *  the text.  A rotor's permutation is compiled only the first time
+ *  it is asked for, and is then cached, so that configurations with
+ *  thousands of rotors cost little more than the handful a message
+ *  actually uses.
+ *  @author Curtis Wong
+ */
+class RotorCatalog {
+
+    /** A catalog of the rotors described by CONFIG, the full text of a
+     *  configuration file. */
+    RotorCatalog(String config) {
+        _text = config;
+        _pos = 0;
+        String chars = nextToken();
+        String rotors = nextToken();
+        String pawls = nextToken();
+        if (pawls == null) {
+            throw error("configuration file truncated");
+        }
+        _alphabet = new Alphabet(chars);
+        _numRotors = toInt(rotors);
+        _numPawls = toInt(pawls);
+        Stepping stepping = Stepping.LEVER;
+        boolean settable = false;
+        for (String option = nextOption(); option != null;
+             option = nextOption()) {
+            int eq = option.indexOf('=');
+            String value = option.substring(eq + 1);
+            switch (option.substring(0, eq)) {
+            case "stepping":
+                stepping = Stepping.named(value);
+                break;
+            case "reflector":
+                if (!value.equals("fixed") && !value.equals("settable")) {
+                    throw error("unknown reflector option: %s", value);
+                }
+                settable = value.equals("settable");
+                break;
+            default:
+                throw error("unknown machine option: %s", option);
+            }
+        }
+        _stepping = stepping;
+        _settableReflector = settable;
+        _entries = new ArrayList<>();
+        _index = new HashMap<>();
+        while (skipWhitespace() < _text.length()) {
+            add(readEntry());
+        }
+    }
+
+    /** A catalog with alphabet ALPHA, NUMROTORS slots, and PAWLS pawls,
+     *  whose entries are the already-built rotors ALLROTORS. */
+    RotorCatalog(Alphabet alpha, int numRotors, int pawls,
+                 Collection<Rotor> allRotors) {
+        _text = null;
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _numPawls = pawls;
+        _stepping = Stepping.LEVER;
+        _settableReflector = false;
+        _entries = new ArrayList<>();
+        _index = new HashMap<>();
+        for (Rotor rotor : allRotors) {
+            char kind =
+                rotor.reflecting() ? 'R' : rotor.rotates() ? 'M' : 'N';
+            Entry entry = new Entry(rotor.name(), kind, "", -1, -1);
+            entry.rotor = rotor;
+            add(entry);
+        }
+    }
+
+    /** Return the key under which rotor NAME is indexed.  Names are
+     *  matched without regard to case, since message lines (and the
+     *  settings among them) are upper-cased on input.  The mapping does
+     *  not depend on the default locale. */
+    static String key(String name) {
+        return name.toUpperCase(Locale.ROOT);
+    }
+
+    /** Return the configuration text I was read from, or null if I was
+     *  built from rotors. */
+    String text() {
+        return _text;
+    }
+
+    /** Return the alphabet of my rotors. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots of machines using me. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls of machines using me. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return how the moving rotors of machines using me step. */
+    Stepping stepping() {
+        return _stepping;
+    }
+
+    /** Return true iff the reflectors I describe can be set to any
+     *  position. */
+    boolean settableReflector() {
+        return _settableReflector;
+    }
+
+    /** Return the number of rotors I describe. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the name of my K-th rotor. */
+    String name(int k) {
+        return _entries.get(k).name;
+    }
+
+    /** Return the index of the rotor named NAME (compared as for key),
+     *  or -1 if there is none. */
+    int find(String name) {
+        Integer k = _index.get(key(name));
+        return k == null ? -1 : k;
+    }
+
+    /** Return true iff my K-th rotor is a reflector. */
+    boolean reflecting(int k) {
+        return _entries.get(k).type == 'R';
+    }
+
+    /** Return true iff my K-th rotor is a moving rotor. */
+    boolean rotates(int k) {
+        return _entries.get(k).type == 'M';
+    }
+
+    /** Return a rotor built from my K-th entry, compiling its
+     *  permutation if that has not been done yet.  Each call returns a
+     *  fresh rotor in its 0 setting; for a catalog built from rotors,
+     *  that is a copy of the given rotor, sharing only its wiring. */
+    Rotor rotor(int k) {
+        Entry entry = _entries.get(k);
+        if (entry.rotor != null) {
+            Rotor result = entry.rotor.copy();
+            result.set(0);
+            return result;
+        }
+        Permutation perm = permutation(k);
+        switch (entry.type) {
+        case 'M':
+            return new MovingRotor(entry.name, perm, entry.notches);
+        case 'N':
+            return new FixedRotor(entry.name, perm);
+        default:
+            return new Reflector(entry.name, perm, _settableReflector);
+        }
+    }
+
+    /** Return the compiled permutation of my K-th entry. */
+    Permutation permutation(int k) {
+        Entry entry = _entries.get(k);
+        if (entry.rotor != null) {
+            return entry.rotor.permutation();
+        }
+        synchronized (entry) {
+            if (entry.perm == null) {
+                entry.perm =
+                    new Permutation(_text.substring(entry.start, entry.end),
+                                    _alphabet);
+            }
+            return entry.perm;
+        }
+    }
+
+    /** Add ENTRY to my index, rejecting duplicate names. */
+    private void add(Entry entry) {
+        Integer prev = _index.put(key(entry.name), _entries.size());
+        if (prev != null) {
+            throw error("duplicate rotor name: %s and %s",
+                        _entries.get(prev).name, entry.name);
+        }
+        _entries.add(entry);
+    }
+
+    /** Read the description of one rotor starting at the current
+     *  position, recording where its cycles lie without parsing them. */
+    private Entry readEntry() {
+        String name = nextToken();
+        String type = nextToken();
+        if (type == null || type.startsWith("(")) {
+            throw error("bad rotor description");
+        }
+        char kind = type.charAt(0);
+        if (kind != 'M' && kind != 'N' && kind != 'R') {
+            throw error("Invalid rotor type");
+        }
+        String notches = kind == 'M' ? type.substring(1) : "";
+        for (int i = 0; i < notches.length(); i += 1) {
+            if (!_alphabet.contains(notches.charAt(i))) {
+                throw error("notch %c of rotor %s not in alphabet",
+                            notches.charAt(i), name);
+            }
+        }
+        int start = skipWhitespace(), end = start;
+        while (_pos < _text.length() && _text.charAt(_pos) == '(') {
+            nextToken();
+            end = _pos;
+            skipWhitespace();
+        }
+        return new Entry(name, kind, notches, start, end);
+    }
+
+    /** Return the next token if it is a machine option (contains '='),
+     *  and otherwise, leaving it unread, null. */
+    private String nextOption() {
+        int start = _pos;
+        String token = nextToken();
+        if (token == null || token.indexOf('=') < 0) {
+            _pos = start;
+            return null;
+        }
+        return token;
+    }
+
+    /** Advance past whitespace, returning the resulting position. */
+    private int skipWhitespace() {
+        while (_pos < _text.length()
+               && Character.isWhitespace(_text.charAt(_pos))) {
+            _pos += 1;
+        }
+        return _pos;
+    }
+
+    /** Return the next whitespace-delimited token, or null if the text
+     *  is exhausted. */
+    private String nextToken() {
+        int start = skipWhitespace();
+        if (start == _text.length()) {
+            return null;
+        }
+        while (_pos < _text.length()
+               && !Character.isWhitespace(_text.charAt(_pos))) {
+            _pos += 1;
+        }
+        return _text.substring(start, _pos);
+    }
+
+    /** Return the non-negative decimal integer denoted by TOKEN. */
+    private static int toInt(String token) {
+        int result = 0;
+        if (token.isEmpty() || token.length() > 9) {
+            throw error("bad number in configuration: %s", token);
+        }
+        for (int i = 0; i < token.length(); i += 1) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                throw error("bad number in configuration: %s", token);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /** The index record for one rotor. */
+    private static class Entry {
+        /** A rotor NAME of kind TYPE ('M', 'N', or 'R') with NOTCHES,
+         *  whose cycles occupy [START .. END) of the configuration. */
+        Entry(String name, char type, String notches, int start, int end) {
+            this.name = name;
+            this.type = type;
+            this.notches = notches;
+            this.start = start;
+            this.end = end;
+        }
+
+        /** Rotor name. */
+        private final String name;
+        /** Rotor kind: 'M' (moving), 'N' (fixed), or 'R' (reflector). */
+        private final char type;
+        /** Notch characters of a moving rotor. */
+        private final String notches;
+        /** Offsets of the rotor's cycles in the configuration text. */
+        private final int start, end;
+        /** The compiled permutation, once needed. */
+        private Permutation perm;
+        /** A prebuilt rotor, for catalogs made from rotor collections. */
+        private Rotor rotor;
+    }
+
+    /** Text of the configuration, or null if built from rotors. */
+    private final String _text;
+
+    /** Current scanning position in _text while indexing. */
+    private int _pos;
+
+    /** Alphabet of the configuration. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Stepping of machines using me. */
+    private final Stepping _stepping;
+
+    /** True iff my reflectors can be set to any position. */
+    private final boolean _settableReflector;
+
+    /** Index of rotor descriptions, in configuration order. */
+    private final ArrayList<Entry> _entries;
+
+    /** Maps key(name) to the index of that rotor in _entries. */
+    private final HashMap<String, Integer> _index;
+
+}
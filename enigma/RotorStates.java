@@ -0,0 +1,216 @@
+package enigma;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/** The rotor settings a machine passes through as it is stepped, as
+ *  packed snapshot() values: element I is the setting after I
+ *  keystrokes from a given start.  Stepping follows Machine.advance()
+ *  under either Stepping model, double stepping included, but works
+ *  directly on notch tables and the packed value rather than on rotors,
+ *  so that each element costs a few array lookups.  Stretches in which
+ *  only the rightmost rotor moves are crossed in one jump, so that
+ *  trySplit(), which must fast-forward to the split point, costs about
+ *  one step per revolution of that rotor.
+ *  @author Curtis Wong
+ */
+class RotorStates implements Spliterator.OfLong {
+
+    /** The first COUNT settings of MACHINE's rotors, starting with their
+     *  current ones. */
+    RotorStates(Machine machine, long count) {
+        Alphabet alphabet = machine.alphabet();
+        int first = machine.numRotors() - machine.numPawls();
+        _size = alphabet.size();
+        _bits = machine.settingBits();
+        _cog = machine.stepping() == Stepping.COG;
+        _pos = new int[machine.numPawls()];
+        _notch = new boolean[_pos.length][_size];
+        _packed = machine.snapshot();
+        long packed = _packed;
+        for (int j = _pos.length - 1; j >= 0; j -= 1) {
+            _pos[j] = (int) (packed & ((1L << _bits) - 1));
+            packed >>>= _bits;
+            String notches = machine.notches(first + j);
+            for (int k = 0; k < notches.length(); k += 1) {
+                _notch[j][alphabet.toInt(notches.charAt(k))] = true;
+            }
+        }
+        _gap = new int[_size];
+        for (int p = 0; p < _size; p += 1) {
+            _gap[p] = Integer.MAX_VALUE;
+            for (int d = 0; d < _size && _pos.length > 1; d += 1) {
+                if (_notch[_pos.length - 1][(p + d) % _size]) {
+                    _gap[p] = d;
+                    break;
+                }
+            }
+        }
+        _end = count;
+    }
+
+    /** A copy of STATES that ends before element END. */
+    private RotorStates(RotorStates states, long end) {
+        _size = states._size;
+        _bits = states._bits;
+        _cog = states._cog;
+        _notch = states._notch;
+        _gap = states._gap;
+        _pos = states._pos.clone();
+        _packed = states._packed;
+        _index = states._index;
+        _end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+        if (_index >= _end) {
+            return false;
+        }
+        action.accept(_packed);
+        step();
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(LongConsumer action) {
+        while (_index < _end) {
+            action.accept(_packed);
+            step();
+        }
+    }
+
+    @Override
+    public RotorStates trySplit() {
+        long half = (_end - _index) / 2;
+        if (half < MIN_SPLIT) {
+            return null;
+        }
+        RotorStates prefix = new RotorStates(this, _index + half);
+        skip(half);
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return _end - _index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+    }
+
+    /** Step the rotors as for one keystroke.  Under lever stepping, each
+     *  moving rotor but the last moves if the rotor to its right is at a
+     *  notch, or if it is itself at a notch and has a moving rotor to
+     *  its left; under cog stepping, it moves if the rotor to its right
+     *  moved from a notch.  With no moving rotors, nothing moves. */
+    private void step() {
+        int last = _pos.length - 1;
+        if (last < 0) {
+            _index += 1;
+            return;
+        }
+        if (_cog) {
+            for (int j = last; j >= 0; j -= 1) {
+                boolean carry = _notch[j][_pos[j]];
+                move(j);
+                if (!carry) {
+                    break;
+                }
+            }
+            _index += 1;
+            return;
+        }
+        for (int j = 0; j < last; j += 1) {
+            if (_notch[j + 1][_pos[j + 1]] || (j > 0 && _notch[j][_pos[j]])) {
+                move(j);
+            }
+        }
+        move(last);
+        _index += 1;
+    }
+
+    /** Advance moving rotor J by one setting. */
+    private void move(int j) {
+        int shift = _bits * (_pos.length - 1 - j);
+        _pos[j] += 1;
+        _packed += 1L << shift;
+        if (_pos[j] == _size) {
+            _pos[j] = 0;
+            _packed -= (long) _size << shift;
+        }
+    }
+
+    /** Skip my next N elements, returning the one that is then next. */
+    long skip(long n) {
+        int last = _pos.length - 1;
+        if (last < 0) {
+            _index += n;
+            return _packed;
+        }
+        while (n > 0) {
+            long run = quiet() ? Math.min(n, _gap[_pos[last]]) : 0;
+            if (run == 0) {
+                step();
+                n -= 1;
+            } else {
+                int p = (int) ((_pos[last] + run) % _size);
+                _packed += p - _pos[last];
+                _pos[last] = p;
+                _index += run;
+                n -= run;
+            }
+        }
+        return _packed;
+    }
+
+    /** Return true iff no moving rotor but the first and last is at a
+     *  notch (or there is no double step), so that only the last moves
+     *  until it reaches a notch. */
+    private boolean quiet() {
+        if (_cog) {
+            return true;
+        }
+        for (int j = 1; j < _pos.length - 1; j += 1) {
+            if (_notch[j][_pos[j]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Smallest number of elements split off. */
+    private static final long MIN_SPLIT = 1 << 10;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Bits per rotor in a packed setting. */
+    private final int _bits;
+
+    /** True iff the rotors step like an odometer (Stepping.COG). */
+    private final boolean _cog;
+
+    /** _notch[j][p] is true iff moving rotor J is at a notch at P. */
+    private final boolean[][] _notch;
+
+    /** _gap[p] is the number of steps from setting P until the last
+     *  rotor is at a notch (MAX_VALUE if it never is, or if no rotor
+     *  moves with it). */
+    private final int[] _gap;
+
+    /** Current settings of the moving rotors, left to right. */
+    private final int[] _pos;
+
+    /** Current packed setting of all the rotors. */
+    private long _packed;
+
+    /** Number of the current element. */
+    private long _index;
+
+    /** Number of the element after my last. */
+    private final long _end;
+
+}
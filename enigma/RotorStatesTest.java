@@ -0,0 +1,143 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.stream.StreamSupport;
+
+/** The suite of all JUnit tests for the RotorStates class.
+ *  @author Curtis Wong
+ */
+public class RotorStatesTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with four slots, PAWLS pawls, and machine
+     *  OPTIONS. */
+    private static String config(int pawls, String options) {
+        return "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+            + " 4 " + pawls + " " + options + "\n"
+            + " I " + (pawls == 3 ? "MQ" : "N")
+            + " (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+            + " II " + (pawls >= 2 ? "ME" : "N")
+            + " (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+            + " III " + (pawls >= 1 ? "MV" : "N")
+            + " (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+            + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+            + "   (RX) (SZ) (TV)\n";
+    }
+
+    /** Return a machine for config(PAWLS, OPTIONS) with its rotors at
+     *  POSN. */
+    private static Machine machine(int pawls, String options,
+                                   String posn) {
+        Machine result =
+            new Machine(new RotorCatalog(config(pawls, options)));
+        result.insertRotors(new String[] { "B", "I", "II", "III" });
+        result.setRotors(posn);
+        return result;
+    }
+
+    /** Return a standard machine for config(PAWLS, "") with its rotors
+     *  at POSN. */
+    private static Machine machine(int pawls, String posn) {
+        return machine(pawls, "", posn);
+    }
+
+    /** Check that the first N states of M, taken sequentially and in
+     *  parallel, are the snapshots of M as it advances. */
+    private static void checkStates(Machine m, int n) {
+        long[] sequential =
+            StreamSupport.longStream(m.states(n), false).toArray();
+        long[] parallel =
+            StreamSupport.longStream(m.states(n), true).toArray();
+        Machine copy = m.copy();
+        for (int i = 0; i < n; i += 1) {
+            assertEquals("state " + i, copy.snapshot(), sequential[i]);
+            assertEquals("parallel state " + i, sequential[i], parallel[i]);
+            copy.advance();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void threePawlsWithDoubleStep() {
+        checkStates(machine(3, "ADU"), 100000);
+    }
+
+    @Test
+    public void twoPawls() {
+        checkStates(machine(2, "AAU"), 100000);
+    }
+
+    @Test
+    public void onePawl() {
+        checkStates(machine(1, "QEV"), 100000);
+    }
+
+    @Test
+    public void noPawls() {
+        Machine m = machine(0, "QEV");
+        long start = m.snapshot();
+        checkStates(m, 100000);
+        RotorStates states = m.states(5000);
+        assertNotNull(states.trySplit());
+        assertEquals(start, states.skip(1000));
+        assertEquals(1500, states.estimateSize());
+        checkStates(machine(0, "stepping=cog", "QEV"), 10000);
+    }
+
+    @Test
+    public void cogStepping() {
+        Machine m = machine(3, "stepping=cog", "ADU");
+        assertEquals(Stepping.COG, m.stepping());
+        long[] states =
+            StreamSupport.longStream(m.states(3), false).toArray();
+        Machine expected = machine(3, "AEW");
+        assertEquals(expected.snapshot(), states[2]);
+        checkStates(machine(3, "stepping=cog", "PDU"), 100000);
+        checkStates(machine(2, "stepping=cog", "AAU"), 100000);
+    }
+
+    @Test
+    public void settableReflector() {
+        Machine m = machine(3, "reflector=settable", "CADU");
+        assertEquals(2, m.reflectorSetting());
+        assertEquals(machine(3, "ADU").snapshot(), m.snapshot());
+        checkStates(m, 1000);
+    }
+
+    @Test
+    public void leavesMachineUnchanged() {
+        Machine m = machine(3, "ADU");
+        long start = m.snapshot();
+        StreamSupport.longStream(m.states(1000), false).sum();
+        assertEquals(start, m.snapshot());
+    }
+
+    @Test
+    public void splitsAtMidpoint() {
+        Machine m = machine(3, "ADU");
+        RotorStates suffix = m.states(5000);
+        RotorStates prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        assertEquals(2500, prefix.estimateSize());
+        assertEquals(2500, suffix.estimateSize());
+        Machine copy = m.copy();
+        for (int i = 0; i < 2500; i += 1) {
+            copy.advance();
+        }
+        long[] first = new long[1];
+        assertTrue(suffix.tryAdvance((long s) -> first[0] = s));
+        assertEquals(copy.snapshot(), first[0]);
+        assertNull(m.states(10).trySplit());
+    }
+
+}
@@ -0,0 +1,63 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The ways a machine's moving rotors can be driven, chosen in the
+ *  configuration file (see RotorCatalog).  Each steps an array of rotors
+ *  in place, without allocating, so that every variant runs as fast as
+ *  the standard machine.
+ *  @author Curtis Wong
+ */
+enum Stepping {
+
+    /** The standard Enigma: pawls and notched rings.  Each moving rotor
+     *  but the last moves if the rotor to its right is at a notch, or
+     *  if it is itself at a notch and has a moving rotor to its left
+     *  (the double step); the last always moves. */
+    LEVER {
+        @Override
+        void advance(Rotor[] rotors, int first) {
+            int last = rotors.length - 1;
+            for (int i = first; i < last; i += 1) {
+                if (rotors[i + 1].atNotch()
+                    || (i > first && rotors[i].atNotch())) {
+                    rotors[i].advance();
+                }
+            }
+            rotors[last].advance();
+        }
+    },
+
+    /** Cog-wheel drive, as in the Abwehr machines: an odometer.  The
+     *  last moving rotor always moves, and each rotor that moves from a
+     *  notch carries the one to its left along with it.  There is no
+     *  double step. */
+    COG {
+        @Override
+        void advance(Rotor[] rotors, int first) {
+            for (int i = rotors.length - 1; i >= first; i -= 1) {
+                boolean carry = rotors[i].atNotch();
+                rotors[i].advance();
+                if (!carry) {
+                    break;
+                }
+            }
+        }
+    };
+
+    /** Advance ROTORS as for one keystroke, where ROTORS[FIRST ..] are
+     *  the moving ones. */
+    abstract void advance(Rotor[] rotors, int first);
+
+    /** Return the model named NAME (in any case), as written in a
+     *  configuration file. */
+    static Stepping named(String name) {
+        for (Stepping model : values()) {
+            if (model.name().equalsIgnoreCase(name)) {
+                return model;
+            }
+        }
+        throw error("unknown stepping: %s", name);
+    }
+
+}
@@ -10,8 +10,20 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+        System.exit(textui.runClasses(AlphabetTest.class,
+                                      PermutationTest.class,
+                                      MovingRotorTest.class,
+                                      MachineTest.class,
+                                      LatencyHistogramTest.class,
+                                      FuzzTest.class,
+                                      RotorStatesTest.class,
+                                      CycleIndexTest.class,
+                                      KeySearchTest.class,
+                                      LineReaderTest.class,
+                                      ContainerTest.class,
+                                      BatchTest.class,
+                                      WorkloadTest.class,
+                                      MainTest.class));
     }
 
 }
@@ -0,0 +1,493 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** A generator of synthetic input for Main, for load testing and
+ *  benchmarking.  The input is a series of random setting lines, each
+ *  followed by random message lines, all valid for a given
+ *  configuration: each setting line names a reflector, distinct fixed
+ *  rotors for the fixed slots and moving rotors for the moving ones,
+ *  positions, and plugboard pairs, and each message is letters of the
+ *  alphabet in groups of five.  Only characters that Main reads back
+ *  unchanged are used: messages avoid '*' and characters that
+ *  upper-casing changes, and positions and plugboard pairs further use
+ *  only letters, digits, and underscores.
+ *
+ *  Setting lines are generated in chunks of CHUNK_SETTINGS, in
+ *  parallel, and written in order.  Each chunk draws from its own
+ *  SplittableRandom, split in chunk order from one seeded by the seed,
+ *  so that the output depends only on the configuration, the options,
+ *  and the seed, and not on the number of threads.
+ *
+ *  Usage: java enigma.Workload CONFIG [OUTPUT] [--settings=N]
+ *                [--messages=DIST] [--length=DIST] [--pairs=DIST]
+ *                [--seed=S] [--threads=T]
+ *  Writes N (default 1000) setting lines to OUTPUT (default: the
+ *  standard output), each followed by a number of messages drawn from
+ *  the distribution --messages (default 1-5) with lengths drawn from
+ *  --length (default 20-250), and with a number of plugboard pairs
+ *  drawn from --pairs (default 10, or as many as the alphabet allows).
+ *  DIST is N (always N), LO-HI (uniform from LO to HI), or exp:MEAN
+ *  (exponential with mean MEAN, rounded).  S defaults to 0 and T to the
+ *  number of processors.  Reports the volume and rate on the standard
+ *  error.
+ *  @author Curtis Wong
+ */
+class Workload {
+
+    /** Generate as directed by ARGS (see above). */
+    public static void main(String... args) {
+        try {
+            ArrayList<String> files = new ArrayList<>();
+            long settings = DEFAULT_SETTINGS, seed = 0;
+            int threads = Runtime.getRuntime().availableProcessors();
+            Distribution messages = Distribution.parse("1-5");
+            Distribution length = Distribution.parse("20-250");
+            Distribution pairs = Distribution.parse("10");
+            for (String arg : args) {
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--settings=")) {
+                    settings = longOption(arg);
+                } else if (arg.startsWith("--messages=")) {
+                    messages = Distribution.parse(value);
+                } else if (arg.startsWith("--length=")) {
+                    length = Distribution.parse(value);
+                } else if (arg.startsWith("--pairs=")) {
+                    pairs = Distribution.parse(value);
+                } else if (arg.startsWith("--seed=")) {
+                    seed = longOption(arg);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = (int) Math.max(1, longOption(arg));
+                } else if (arg.startsWith("--")) {
+                    throw error("unknown option: %s", arg);
+                } else {
+                    files.add(arg);
+                }
+            }
+            if (files.size() != 1 && files.size() != 2) {
+                throw error("usage: CONFIG [OUTPUT] [--settings=N] "
+                            + "[--messages=DIST] [--length=DIST] "
+                            + "[--pairs=DIST] [--seed=S] [--threads=T]");
+            }
+            Workload workload =
+                new Workload(new RotorCatalog(Main.readFile(files.get(0))),
+                             messages, length, pairs);
+            long start = System.nanoTime();
+            long bytes;
+            try (WritableByteChannel out =
+                 Main.openOutput(files.size() == 2 ? files.get(1) : null)) {
+                bytes = workload.write(out, settings, seed, threads);
+            } catch (IOException excp) {
+                throw error("could not write output");
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d setting lines, %d bytes in %.1fs "
+                              + "(%.0f MB/s)%n", settings, bytes, secs,
+                              bytes / secs / 1e6);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the non-negative value of OPTION, "--NAME=VALUE". */
+    private static long longOption(String option) {
+        try {
+            long value =
+                Long.parseLong(option.substring(option.indexOf('=') + 1));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("bad value in option %s", option);
+    }
+
+    /** A generator of input for machines described by CATALOG, with
+     *  the number of messages per setting line, the length of each, and
+     *  the number of plugboard pairs drawn from MESSAGES, LENGTH, and
+     *  PAIRS. */
+    Workload(RotorCatalog catalog, Distribution messages,
+             Distribution length, Distribution pairs) {
+        _catalog = catalog;
+        _messages = messages;
+        _length = length;
+        _pairs = pairs;
+        int firstMoving = catalog.numRotors() - catalog.numPawls();
+        ArrayList<Integer> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (int k = 0; k < catalog.size(); k += 1) {
+            (catalog.reflecting(k) ? reflectors
+             : catalog.rotates(k) ? moving : fixed).add(k);
+        }
+        _reflectors = toArray(reflectors, 1, "reflectors");
+        _fixed = toArray(fixed, firstMoving - 1, "fixed rotors");
+        _moving = toArray(moving, catalog.numPawls(), "moving rotors");
+        Alphabet alphabet = catalog.alphabet();
+        StringBuilder letters = new StringBuilder(),
+            keys = new StringBuilder();
+        for (int i = 0; i < alphabet.size(); i += 1) {
+            char c = alphabet.toChar(i);
+            String s = String.valueOf(c);
+            if (c == '*' || Character.isWhitespace(c)
+                || !s.toUpperCase(Locale.ROOT).equals(s)) {
+                continue;
+            }
+            letters.append(c);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                || c >= '0' && c <= '9' || c == '_') {
+                keys.append(c);
+            }
+        }
+        if (letters.length() == 0) {
+            throw error("no characters of the alphabet can be used "
+                        + "in messages");
+        }
+        _letters = new byte[letters.length()][];
+        byte[] ascii = new byte[letters.length()];
+        for (int i = 0; i < _letters.length; i += 1) {
+            _letters[i] = letters.substring(i, i + 1)
+                .getBytes(StandardCharsets.UTF_8);
+            if (letters.charAt(i) < ASCII) {
+                ascii[i] = (byte) letters.charAt(i);
+            } else {
+                ascii = null;
+                break;
+            }
+        }
+        _ascii = ascii;
+        _keys = keys.toString();
+    }
+
+    /** Write SETTINGS setting lines and their messages, generated from
+     *  SEED on THREADS threads, to OUT, returning the number of bytes
+     *  written. */
+    long write(WritableByteChannel out, long settings, long seed,
+               int threads) throws IOException {
+        SplittableRandom root = new SplittableRandom(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+        long written = 0;
+        try {
+            long next = 0;
+            while (next < settings || !pending.isEmpty()) {
+                while (next < settings && pending.size() < 2 * threads) {
+                    int count = (int) Math.min(CHUNK_SETTINGS,
+                                               settings - next);
+                    SplittableRandom rand = root.split();
+                    pending.add(pool.submit(() -> chunk(count, rand)));
+                    next += count;
+                }
+                ByteBuffer chunk = pending.remove().get();
+                while (chunk.hasRemaining()) {
+                    written += out.write(chunk);
+                }
+            }
+        } catch (ExecutionException excp) {
+            throw error("generation failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("generation interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+        return written;
+    }
+
+    /** Return COUNT setting lines, each followed by its messages, drawn
+     *  from RAND. */
+    private ByteBuffer chunk(int count, SplittableRandom rand) {
+        Chunk result = new Chunk();
+        int[] fixed = _fixed.clone(), moving = _moving.clone();
+        char[] keys = _keys.toCharArray();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < count; i += 1) {
+            line.setLength(0);
+            setting(line, rand, fixed, moving, keys);
+            result.put(line.append('\n').toString());
+            for (int m = _messages.next(rand); m > 0; m -= 1) {
+                message(result, _length.next(rand), rand);
+            }
+        }
+        return result.buffer();
+    }
+
+    /** Append to LINE a setting line drawn from RAND, using FIXED,
+     *  MOVING, and KEYS, arrangements of _fixed, _moving, and _keys, as
+     *  scratch. */
+    private void setting(StringBuilder line, SplittableRandom rand,
+                         int[] fixed, int[] moving, char[] keys) {
+        int numRotors = _catalog.numRotors(), pawls = _catalog.numPawls();
+        line.append("* ").append(_catalog.name(
+            _reflectors[rand.nextInt(_reflectors.length)]));
+        shuffle(fixed, numRotors - pawls - 1, rand);
+        for (int i = 0; i < numRotors - pawls - 1; i += 1) {
+            line.append(' ').append(_catalog.name(fixed[i]));
+        }
+        shuffle(moving, pawls, rand);
+        for (int i = 0; i < pawls; i += 1) {
+            line.append(' ').append(_catalog.name(moving[i]));
+        }
+        if (keys.length > 0) {
+            int n = numRotors - 1;
+            if (_catalog.settableReflector() && rand.nextBoolean()) {
+                n += 1;
+            }
+            line.append(' ');
+            for (int i = 0; i < n; i += 1) {
+                line.append(keys[rand.nextInt(keys.length)]);
+            }
+        }
+        int pairs = Math.min(_pairs.next(rand), keys.length / 2);
+        shuffle(keys, 2 * pairs, rand);
+        for (int i = 0; i < 2 * pairs; i += 2) {
+            line.append(" (").append(keys[i]).append(keys[i + 1])
+                .append(')');
+        }
+    }
+
+    /** Add to OUT a message line of LENGTH characters drawn from RAND,
+     *  in groups of five. */
+    private void message(Chunk out, int length, SplittableRandom rand) {
+        long bits = 0;
+        long k = _letters.length;
+        if (_ascii != null) {
+            int groups = (length + GROUP - 1) / GROUP;
+            byte[] bytes = out.reserve(length + Math.max(1, groups));
+            int p = out.length();
+            for (int i = 0, g = 0; i < length; i += 1, g += 1) {
+                if (g == GROUP) {
+                    bytes[p] = ' ';
+                    p += 1;
+                    g = 0;
+                }
+                if ((i & 1) == 0) {
+                    bits = rand.nextLong();
+                }
+                bytes[p] = _ascii[(int) (((bits & LOW_BITS) * k) >>> 32)];
+                p += 1;
+                bits >>>= 32;
+            }
+            bytes[p] = '\n';
+            out.setLength(p + 1);
+            return;
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (i > 0 && i % GROUP == 0) {
+                out.put((byte) ' ');
+            }
+            if ((i & 1) == 0) {
+                bits = rand.nextLong();
+            }
+            out.put(_letters[(int) (((bits & LOW_BITS) * k) >>> 32)]);
+            bits >>>= 32;
+        }
+        out.put((byte) '\n');
+    }
+
+    /** Move a random selection of N of the elements of A, in random
+     *  order, to its front, drawing from RAND. */
+    private static void shuffle(int[] a, int n, SplittableRandom rand) {
+        for (int i = 0; i < n; i += 1) {
+            int j = rand.nextInt(i, a.length);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /** Move a random selection of N of the elements of A, in random
+     *  order, to its front, drawing from RAND. */
+    private static void shuffle(char[] a, int n, SplittableRandom rand) {
+        for (int i = 0; i < n; i += 1) {
+            int j = rand.nextInt(i, a.length);
+            char t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /** Return the catalog indices in LIST as an array, first checking
+     *  that there are at least MIN of them (rotors of kind KIND). */
+    private static int[] toArray(ArrayList<Integer> list, int min,
+                                 String kind) {
+        if (list.size() < min) {
+            throw error("configuration has too few %s", kind);
+        }
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** A distribution of non-negative integers, as given on the command
+     *  line: N, LO-HI, or exp:MEAN (see above). */
+    static final class Distribution {
+
+        /** The distribution described by SPEC. */
+        static Distribution parse(String spec) {
+            try {
+                if (spec.startsWith("exp:")) {
+                    double mean = Double.parseDouble(spec.substring(4));
+                    if (mean >= 0) {
+                        return new Distribution(0, 0, mean);
+                    }
+                } else {
+                    int dash = spec.indexOf('-', 1);
+                    int lo = Integer.parseInt(
+                        dash < 0 ? spec : spec.substring(0, dash));
+                    int hi = dash < 0 ? lo
+                        : Integer.parseInt(spec.substring(dash + 1));
+                    if (lo >= 0 && hi >= lo) {
+                        return new Distribution(lo, hi, -1);
+                    }
+                }
+            } catch (NumberFormatException excp) {
+                /* Fall through to the error below. */
+            }
+            throw error("bad distribution: %s", spec);
+        }
+
+        /** Uniform over LO .. HI if MEAN is negative, and otherwise
+         *  exponential with mean MEAN. */
+        private Distribution(int lo, int hi, double mean) {
+            _lo = lo;
+            _hi = hi;
+            _mean = mean;
+        }
+
+        /** Return a value drawn from RAND. */
+        int next(SplittableRandom rand) {
+            if (_mean >= 0) {
+                return (int) Math.min(Integer.MAX_VALUE / 2, Math.round(
+                    -Math.log(1 - rand.nextDouble()) * _mean));
+            }
+            return _lo == _hi ? _lo : rand.nextInt(_lo, _hi + 1);
+        }
+
+        /** Bounds of a uniform distribution. */
+        private final int _lo, _hi;
+
+        /** Mean of an exponential distribution, or -1 if uniform. */
+        private final double _mean;
+    }
+
+    /** A growing buffer of generated bytes. */
+    private static final class Chunk {
+
+        /** Add B. */
+        void put(byte b) {
+            if (_length == _bytes.length) {
+                grow(1);
+            }
+            _bytes[_length] = b;
+            _length += 1;
+        }
+
+        /** Add the bytes of B. */
+        void put(byte[] b) {
+            if (b.length == 1) {
+                put(b[0]);
+                return;
+            }
+            if (_length + b.length > _bytes.length) {
+                grow(b.length);
+            }
+            System.arraycopy(b, 0, _bytes, _length, b.length);
+            _length += b.length;
+        }
+
+        /** Add TEXT, encoded as UTF-8. */
+        void put(String text) {
+            put(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Return the number of bytes added so far. */
+        int length() {
+            return _length;
+        }
+
+        /** Return the array holding my bytes, first making room in it
+         *  for N more after the first length(). */
+        byte[] reserve(int n) {
+            if (_length + n > _bytes.length) {
+                grow(n);
+            }
+            return _bytes;
+        }
+
+        /** Set length() to N, after storing up to N bytes directly in
+         *  reserve()'s array. */
+        void setLength(int n) {
+            _length = n;
+        }
+
+        /** Return my contents, ready to be written. */
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(_bytes, 0, _length);
+        }
+
+        /** Make room for at least N more bytes. */
+        private void grow(int n) {
+            byte[] bytes = new byte[Math.max(2 * _bytes.length,
+                                             _length + n)];
+            System.arraycopy(_bytes, 0, bytes, 0, _length);
+            _bytes = bytes;
+        }
+
+        /** Bytes added so far, in _bytes[0 .. _length-1]. */
+        private byte[] _bytes = new byte[1 << 16];
+
+        /** Number of bytes added. */
+        private int _length;
+    }
+
+    /** Default number of setting lines. */
+    private static final long DEFAULT_SETTINGS = 1000;
+
+    /** Setting lines generated as a unit. */
+    private static final int CHUNK_SETTINGS = 256;
+
+    /** Characters per group in message lines. */
+    private static final int GROUP = 5;
+
+    /** Characters below this are ASCII, a single byte in UTF-8. */
+    private static final char ASCII = 0x80;
+
+    /** Mask for the low 32 bits of a long. */
+    private static final long LOW_BITS = 0xFFFFFFFFL;
+
+    /** The configuration generated for. */
+    private final RotorCatalog _catalog;
+
+    /** Distributions of messages per setting line, message length, and
+     *  plugboard pairs per setting line. */
+    private final Distribution _messages, _length, _pairs;
+
+    /** Catalog indices of the reflectors, fixed rotors, and moving
+     *  rotors. */
+    private final int[] _reflectors, _fixed, _moving;
+
+    /** UTF-8 encodings of the characters used in messages. */
+    private final byte[][] _letters;
+
+    /** The characters used in messages, if they are all ASCII, and
+     *  otherwise null. */
+    private final byte[] _ascii;
+
+    /** Characters used in positions and plugboard pairs. */
+    private final String _keys;
+
+}
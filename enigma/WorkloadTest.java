@@ -0,0 +1,147 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.SplittableRandom;
+
+/** The suite of all JUnit tests for the Workload class.
+ *  @author Curtis Wong
+ */
+public class WorkloadTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with five slots, three pawls, more rotors of each
+     *  kind than fit, and a reflector that can be set. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3 reflector=settable\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n"
+        + " C R (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "   (QZ) (SX) (UY)\n";
+
+    /** Return the output of a workload for CONFIG with SETTINGS setting
+     *  lines from SEED, generated on THREADS threads. */
+    private static String generate(long settings, long seed, int threads)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Workload workload =
+            new Workload(new RotorCatalog(CONFIG),
+                         Workload.Distribution.parse("0-4"),
+                         Workload.Distribution.parse("exp:40"),
+                         Workload.Distribution.parse("0-13"));
+        long written = workload.write(Channels.newChannel(bytes), settings,
+                                      seed, threads);
+        assertEquals(bytes.size(), written);
+        return bytes.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void reproducible() throws IOException {
+        String one = generate(1000, 42, 1);
+        assertEquals(one, generate(1000, 42, 4));
+        assertFalse(one.equals(generate(1000, 43, 4)));
+        assertTrue(generate(1000, 42, 2).startsWith(generate(256, 42, 2)));
+    }
+
+    @Test
+    public void validInput() throws IOException {
+        RotorCatalog catalog = new RotorCatalog(CONFIG);
+        String[] lines = generate(1000, 7, 2).split("\n", -1);
+        assertEquals("", lines[lines.length - 1]);
+        int settings = 0;
+        Machine machine = null;
+        for (int i = 0; i < lines.length - 1; i += 1) {
+            String line = lines[i];
+            if (line.contains("*")) {
+                settings += 1;
+                String[] words = line.split(" ");
+                String posn = words[6];
+                assertTrue(line, posn.length() == 4 || posn.length() == 5);
+                machine = new Machine(catalog);
+                Main.setUp(machine, line);
+                Machine expected = new Machine(catalog);
+                expected.insertRotors(new String[] {
+                    words[1], words[2], words[3], words[4], words[5] });
+                expected.setRotors(posn);
+                assertEquals(line, expected.snapshot(), machine.snapshot());
+                assertEquals(line, expected.reflectorSetting(),
+                             machine.reflectorSetting());
+                int pairs = words.length - 7;
+                for (int k = 0; k < catalog.alphabet().size(); k += 1) {
+                    int p = machine.plugboard().permute(k);
+                    assertEquals(k, machine.plugboard().permute(p));
+                    pairs -= p > k ? 1 : 0;
+                }
+                assertEquals(line, 0, pairs);
+            } else {
+                assertNotNull(machine);
+                assertEquals(line, line.toUpperCase());
+                String[] groups = line.split(" ");
+                for (int g = 0; g < groups.length; g += 1) {
+                    assertTrue(line, groups[g].length() <= 5);
+                    assertTrue(line, g == groups.length - 1
+                               || groups[g].length() == 5);
+                }
+                machine.convert(line.replace(" ", ""));
+            }
+        }
+        assertEquals(1000, settings);
+    }
+
+    @Test
+    public void distributions() {
+        SplittableRandom rand = new SplittableRandom(1);
+        Workload.Distribution fixed = Workload.Distribution.parse("7");
+        Workload.Distribution range = Workload.Distribution.parse("2-4");
+        Workload.Distribution exp = Workload.Distribution.parse("exp:50");
+        long sum = 0;
+        for (int i = 0; i < 10000; i += 1) {
+            assertEquals(7, fixed.next(rand));
+            int r = range.next(rand);
+            assertTrue(r >= 2 && r <= 4);
+            sum += exp.next(rand);
+        }
+        assertTrue(Math.abs(sum / 10000.0 - 50) < 2.5);
+        for (String bad : new String[] { "", "-1", "4-2", "x", "exp:-1" }) {
+            try {
+                Workload.Distribution.parse(bad);
+                fail("accepted " + bad);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void tooFewRotors() {
+        try {
+            new Workload(new RotorCatalog("AB\n 3 2\n I MA (AB)\n B R (AB)\n"),
+                         Workload.Distribution.parse("1"),
+                         Workload.Distribution.parse("1"),
+                         Workload.Distribution.parse("0"));
+            fail("accepted too few moving rotors");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}